@@ -0,0 +1,365 @@
+package com.facebook.encapp;
+
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.encapp.proto.DataValueType;
+import com.facebook.encapp.proto.DecoderConfigure;
+import com.facebook.encapp.proto.Test;
+import com.facebook.encapp.utils.RuntimeSchedule;
+import com.facebook.encapp.utils.SampleCache;
+import com.facebook.encapp.utils.Statistics;
+import com.facebook.encapp.utils.TestDefinitionHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Decode only test without rendering.
+ *
+ * The decoder outputs to byte buffers which are released as soon as they are dequeued, so the
+ * decoding frame rate and latency do not depend on composition or display. Optionally a
+ * crc32 of the decoded planes is kept for every frame.
+ */
+class BufferDecoder extends Encoder {
+    private final String TAG = "encapp.bufferdecoder";
+    // Short, input and output are served from the same thread
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    MediaExtractor mExtractor;
+    SampleCache mSampleCache;
+    int mSample = 0;
+    MediaCodec mDecoder;
+    RuntimeSchedule mDecoderRuntimeSchedule;
+    boolean mChecksum = false;
+    final CRC32 mFrameCrc = new CRC32();
+    final CRC32 mStreamCrc = new CRC32();
+    // One row of samples with the pixel stride removed
+    byte[] mChecksumRow;
+    int mCurrentLoop = 1;
+    long mPtsOffset = 0;
+    long mLastPts = 0;
+    // Largest pts queued, with b-frames the last one in decode order can be smaller
+    long mMaxPts = 0;
+
+    public String start(Test test) {
+        mTest = test;
+        Log.d(TAG, "**** Headless decode - " + mTest.getCommon().getDescription() + " ***");
+        if (mTest.hasDecoderRuntime()) {
+            mDecoderRuntimeSchedule = new RuntimeSchedule(mTest.getDecoderRuntime());
+        }
+        mRealtime = mTest.getInput().getRealtime();
+        mChecksum = mTest.getDecoderConfigure().getChecksum();
+
+        mExtractor = new MediaExtractor();
+        MediaFormat inputFormat = null;
+        try {
+            mExtractor.setDataSource(mTest.getInput().getFilepath());
+            int trackNum = 0;
+            int tracks = mExtractor.getTrackCount();
+            for (int track = 0; track < tracks; track++) {
+                inputFormat = mExtractor.getTrackFormat(track);
+                if (inputFormat.containsKey(MediaFormat.KEY_MIME) &&
+                        inputFormat.getString(MediaFormat.KEY_MIME).toLowerCase(Locale.US).contains("video")) {
+                    trackNum = track;
+                }
+            }
+            mExtractor.selectTrack(trackNum);
+            inputFormat = mExtractor.getTrackFormat(trackNum);
+            if (inputFormat == null) {
+                Log.e(TAG, "no input format");
+                return "no input format";
+            }
+            checkMediaFormat(inputFormat);
+            if (mTest.getInput().getFrameCacheMb() > 0) {
+                mSampleCache = SampleCache.load(mExtractor, mTest.getInput().getFrameCacheMb() * 1024L * 1024L);
+            }
+            mSetupStartNs = System.nanoTime();
+            Log.d(TAG, "Create decoder by type: " + inputFormat.getString(MediaFormat.KEY_MIME));
+            mDecoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+        } catch (IOException e) {
+            mExtractor.release();
+            e.printStackTrace();
+            return "Failed to create decoder";
+        }
+        mTest = TestDefinitionHelper.updateInputSettings(mTest, inputFormat);
+        mTest = TestDefinitionHelper.checkAnUpdateBasicSettings(mTest);
+        mStats = new Statistics("buffer decoder", mTest);
+        mStats.setCodec(Statistics.NA);
+        mStats.setFramePacer(mPacer);
+        mFrameRate = mTest.getInput().getFramerate();
+        mFrameTimeUsec = calculateFrameTimingUsec(mFrameRate);
+
+        try {
+            setDecoderConfigureParams(mTest.getDecoderConfigure(), inputFormat);
+            // No surface, the output stays in byte buffers
+            mDecoder.configure(inputFormat, null, null, 0);
+            mDecoder.start();
+            codecSetupDone();
+        } catch (MediaCodec.CodecException cex) {
+            Log.e(TAG, "Configure failed: " + cex.getMessage());
+            mDecoder.release();
+            mExtractor.release();
+            return "Failed to configure decoder";
+        } catch (IllegalStateException ise) {
+            Log.e(TAG, "Start failed: " + ise.getMessage());
+            mDecoder.release();
+            mExtractor.release();
+            return "Start decoding failed";
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mStats.setDecoderName(mDecoder.getCodecInfo().getCanonicalName());
+        } else {
+            mStats.setDecoderName(mDecoder.getCodecInfo().getName());
+        }
+        mStats.setDecoderMediaFormat(mDecoder.getInputFormat());
+
+        synchronized (this) {
+            Log.d(TAG, "Wait for synchronized start");
+            try {
+                mInitDone = true;
+                wait(WAIT_TIME_MS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        boolean outputDone = false;
+        mStats.start();
+        try {
+            while (!outputDone) {
+                if (!inputDone) {
+                    int index = mDecoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                    if (index >= 0) {
+                        inputDone = queueSample(index);
+                    }
+                }
+
+                int index = mDecoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                if (index >= 0) {
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        Log.d(TAG, "Decoder eos");
+                        outputDone = true;
+                    }
+                    if (info.size > 0) {
+                        mStats.stopDecodingFrame(info.presentationTimeUs);
+                        if (mChecksum) {
+                            checksum(index);
+                            mStats.setDecodedFrameChecksum(info.presentationTimeUs, mFrameCrc.getValue());
+                        }
+                        mOutFramesCount++;
+                    }
+                    mDecoder.releaseOutputBuffer(index, false);
+                } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    Log.d(TAG, "Decoder output format changed to:");
+                    checkMediaFormat(mDecoder.getOutputFormat());
+                }
+            }
+        } catch (IllegalStateException ise) {
+            Log.e(TAG, "Decoding failed: " + ise.getMessage());
+        }
+        mStats.stop();
+        if (mChecksum) {
+            mStats.setStreamChecksum(mStreamCrc.getValue());
+        }
+        double seconds = mStats.getProcessingTime() / 1000000000.0;
+        Log.d(TAG, "Decoded " + mOutFramesCount + " frames in " + seconds + " sec, " +
+                ((seconds > 0) ? mOutFramesCount / seconds : 0) + " fps");
+
+        try {
+            mDecoder.stop();
+        } catch (IllegalStateException iex) {
+            Log.e(TAG, "Failed to stop decoder: " + iex.getLocalizedMessage());
+        }
+        mDecoder.release();
+        mExtractor.release();
+        mDataWriter.stopWriter();
+        return "";
+    }
+
+    /**
+     * Fills the decoder input buffer with the next sample, the source is looped until done.
+     *
+     * @return true if end of stream was queued.
+     */
+    private boolean queueSample(int index) {
+        ByteBuffer buffer = mDecoder.getInputBuffer(index);
+        int size = readSample(buffer);
+        if (size < 0) {
+            if (doneReading(mTest, mInFramesCount, mCurrentTimeSec, true)) {
+                mDecoder.queueInputBuffer(index, 0, 0, mLastPts, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                return true;
+            }
+            if (mSampleCache != null) {
+                mSample = 0;
+            } else {
+                mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            }
+            mCurrentLoop++;
+            // Keep the timestamps unique, they identify the frames in the stats
+            mPtsOffset = mMaxPts + (long) mFrameTimeUsec;
+            Log.d(TAG, "*** Loop ended starting " + mCurrentLoop + " ***");
+            size = readSample(buffer);
+            if (size < 0) {
+                mDecoder.queueInputBuffer(index, 0, 0, mLastPts, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                return true;
+            }
+        }
+        long pts;
+        int flags;
+        if (mSampleCache != null) {
+            pts = mSampleCache.getSampleTime(mSample) + mPtsOffset;
+            flags = mSampleCache.getSampleFlags(mSample);
+        } else {
+            pts = mExtractor.getSampleTime() + mPtsOffset;
+            flags = mExtractor.getSampleFlags();
+        }
+        mCurrentTimeSec = pts / 1000000.0;
+        boolean done = doneReading(mTest, mInFramesCount, mCurrentTimeSec, false);
+        if (done) {
+            flags |= MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+        }
+        if (mDecoderRuntimeSchedule != null) {
+            Bundle bundle = mDecoderRuntimeSchedule.getParameters(mInFramesCount);
+            if (bundle != null) {
+                mDecoder.setParameters(bundle);
+            }
+        }
+        if (mRealtime) {
+            sleepUntilNextFrame();
+        }
+        if (mInFramesCount % 100 == 0) {
+            Log.d(TAG, "Decoder, inframes: " + mInFramesCount + ", outframes: " + mOutFramesCount +
+                    ", current loop: " + mCurrentLoop + ", current time: " + mCurrentTimeSec + " sec");
+        }
+        mStats.startDecodingFrame(pts, size, flags);
+        mDecoder.queueInputBuffer(index, 0, size, pts, flags);
+        mInFramesCount++;
+        mLastPts = pts;
+        if (pts > mMaxPts) {
+            mMaxPts = pts;
+        }
+        if (mSampleCache != null) {
+            mSample++;
+        } else {
+            mExtractor.advance();
+        }
+        return done;
+    }
+
+    // @return size of the next sample or -1 at the end of the clip
+    private int readSample(ByteBuffer buffer) {
+        if (mSampleCache != null) {
+            return (mSample < mSampleCache.getSampleCount()) ? mSampleCache.readSampleData(mSample, buffer) : -1;
+        }
+        return mExtractor.readSampleData(buffer, 0);
+    }
+
+    /**
+     * Computes the crc32 of the visible part of the decoded planes, or of the whole buffer
+     * if the decoder can not give an image. Only the bytes of each sample are hashed so
+     * planar and interleaved layouts of the same picture give the same crc.
+     */
+    private void checksum(int index) {
+        mFrameCrc.reset();
+        Image image = null;
+        try {
+            image = mDecoder.getOutputImage(index);
+        } catch (IllegalStateException ise) {
+            // Fall back to the buffer
+        }
+        if (image == null) {
+            ByteBuffer data = mDecoder.getOutputBuffer(index);
+            if (data != null) {
+                update(data.duplicate());
+            }
+            return;
+        }
+        Rect crop = image.getCropRect();
+        Image.Plane[] planes = image.getPlanes();
+        // Luma samples are packed, one byte for 8-bit and two for P010
+        int sampleBytes = planes[0].getPixelStride();
+        for (int i = 0; i < planes.length; i++) {
+            // Chroma is subsampled by two in both directions
+            int shift = (i == 0) ? 0 : 1;
+            int left = crop.left >> shift;
+            int top = crop.top >> shift;
+            int width = (crop.width() + shift) >> shift;
+            int height = (crop.height() + shift) >> shift;
+            int pixelStride = planes[i].getPixelStride();
+            int rowStride = planes[i].getRowStride();
+            ByteBuffer plane = planes[i].getBuffer().duplicate();
+            if (pixelStride == sampleBytes) {
+                int rowBytes = width * sampleBytes;
+                for (int row = 0; row < height; row++) {
+                    int start = (top + row) * rowStride + left * pixelStride;
+                    plane.limit(start + rowBytes);
+                    plane.position(start);
+                    update(plane);
+                }
+                continue;
+            }
+            // Interleaved chroma, skip the bytes of the other plane
+            int spanBytes = (width - 1) * pixelStride + sampleBytes;
+            if (mChecksumRow == null || mChecksumRow.length < spanBytes) {
+                mChecksumRow = new byte[spanBytes];
+            }
+            for (int row = 0; row < height; row++) {
+                int start = (top + row) * rowStride + left * pixelStride;
+                plane.limit(start + spanBytes);
+                plane.position(start);
+                plane.get(mChecksumRow, 0, spanBytes);
+                int out = 0;
+                for (int in = 0; in < spanBytes; in += pixelStride) {
+                    for (int b = 0; b < sampleBytes; b++) {
+                        mChecksumRow[out++] = mChecksumRow[in + b];
+                    }
+                }
+                update(mChecksumRow, out);
+            }
+        }
+        image.close();
+    }
+
+    private void update(ByteBuffer data) {
+        int position = data.position();
+        mFrameCrc.update(data);
+        data.position(position);
+        mStreamCrc.update(data);
+    }
+
+    private void update(byte[] data, int length) {
+        mFrameCrc.update(data, 0, length);
+        mStreamCrc.update(data, 0, length);
+    }
+
+    private void setDecoderConfigureParams(DecoderConfigure config, MediaFormat format) {
+        for (DecoderConfigure.Parameter param : config.getParameterList()) {
+            switch (param.getType().getNumber()) {
+                case DataValueType.intType_VALUE:
+                    format.setInteger(param.getKey(), TestDefinitionHelper.magnitudeToInt(param.getValue()));
+                    break;
+                case DataValueType.stringType_VALUE:
+                    format.setString(param.getKey(), param.getValue());
+                    break;
+            }
+        }
+    }
+
+    public void writeToBuffer(@NonNull MediaCodec codec, int index, boolean encoder) {
+    }
+
+    public void readFromBuffer(@NonNull MediaCodec codec, int index, boolean encoder, MediaCodec.BufferInfo info) {
+    }
+}
@@ -4,15 +4,19 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import android.util.Size;
 
 import androidx.annotation.NonNull;
 
 import com.facebook.encapp.proto.Test;
-import com.facebook.encapp.utils.FileReader;
+import com.facebook.encapp.utils.CodecPool;
 import com.facebook.encapp.utils.OutputMultiplier;
+import com.facebook.encapp.utils.RuntimeSchedule;
 import com.facebook.encapp.utils.SizeUtils;
+import com.facebook.encapp.utils.SpscIntQueue;
 import com.facebook.encapp.utils.Statistics;
 import com.facebook.encapp.utils.TestDefinitionHelper;
 
@@ -26,6 +30,17 @@ import java.util.Locale;
  */
 
 class BufferEncoder extends Encoder {
+    private static final int INPUT_QUEUE_SIZE = 64;
+    // Async mode, codec callbacks run on a dedicated thread
+    boolean mAsync = false;
+    boolean mImageInput = false;
+    HandlerThread mCallbackThread;
+    Handler mCallbackHandler;
+    // Fills the input buffers in async mode, so pacing does not delay the output callbacks
+    InputFeeder mFeeder;
+    volatile boolean mInputDone = false;
+    int mCurrentLoop = 1;
+
     public String start(Test td, OutputMultiplier multiplier) {
         //Maybe we can show it?
         return start(td);
@@ -35,12 +50,18 @@ class BufferEncoder extends Encoder {
             Test test) {
         Log.d(TAG, "** Raw buffer encoding - " + test.getCommon().getDescription() + " **");
         test = TestDefinitionHelper.checkAnUpdateBasicSettings(test);
-        if (test.hasRuntime())
+        mTest = test;
+        if (test.hasRuntime()) {
             mRuntimeParams = test.getRuntime();
+            mRuntimeSchedule = new RuntimeSchedule(mRuntimeParams);
+        }
         if (test.getInput().hasRealtime())
             mRealtime = test.getInput().getRealtime();
 
         mFrameRate = test.getConfigure().getFramerate();
+        boolean imageInput = test.getConfigure().getImageInput();
+        mImageInput = imageInput;
+        mAsync = test.getConfigure().getAsyncMode();
         mWriteFile = !test.getConfigure().hasEncode() || test.getConfigure().getEncode();
         mSkipped = 0;
         mFramesAdded = 0;
@@ -50,7 +71,8 @@ class BufferEncoder extends Encoder {
 
         mRealtime = test.getInput().getRealtime();
         mStats = new Statistics("raw encoder", test);
-        mYuvReader = new FileReader();
+        mStats.setFramePacer(mPacer);
+        mYuvReader = createFileReader(test);
 
         if (!mYuvReader.openFile(checkFilePath(test.getInput().getFilepath()))) {
             return "\nCould not open file";
@@ -65,7 +87,7 @@ class BufferEncoder extends Encoder {
                 test = setCodecNameAndIdentifier(test);
             }
             Log.d(TAG, "Create codec by name: " + test.getConfigure().getCodec());
-            mCodec = MediaCodec.createByCodecName(test.getConfigure().getCodec());
+            mCodec = acquireCodec(test.getConfigure().getCodec(), CodecPool.MODE_BUFFER);
 
             format = TestDefinitionHelper.buildMediaFormat(test);
             checkMediaFormat(format);
@@ -74,6 +96,17 @@ class BufferEncoder extends Encoder {
             format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
             Log.d(TAG, "Format for encoder");
             checkMediaFormat(format);
+            if (mAsync) {
+                Log.d(TAG, "Async mode, use callbacks");
+                mCallbackThread = new HandlerThread("BufferEncoder_callbacks");
+                mCallbackThread.start();
+                mCallbackHandler = new Handler(mCallbackThread.getLooper());
+                mFeeder = new InputFeeder();
+                mCodec.setCallback(new EncoderCallbackHandler(), mCallbackHandler);
+                // Output is written by the data writer which maps the timestamps
+                mFirstFrameTimestampUsec = mPts;
+                mStats.setWriterQueue(mDataWriter.getQueue());
+            }
             Log.d(TAG, "Configure: " + mCodec.getName());
             mCodec.configure(
                     format,
@@ -99,6 +132,7 @@ class BufferEncoder extends Encoder {
         try {
             Log.d(TAG, "Start encoder");
             mCodec.start();
+            codecSetupDone();
         } catch (Exception ex) {
             Log.e(TAG, "Start failed: " + ex.getMessage());
             return "Start encoding failed";
@@ -132,6 +166,10 @@ class BufferEncoder extends Encoder {
             }
         }
         mStats.start();
+        if (mAsync) {
+            waitForAsyncEncoding();
+            done = true;
+        }
         while (!done) {
             int index;
             if (mFramesAdded % 100 == 0) {
@@ -149,16 +187,25 @@ class BufferEncoder extends Encoder {
                 if (index >= 0) {
                     int size = -1;
 
-                    ByteBuffer buffer = mCodec.getInputBuffer(index);
+                    ByteBuffer buffer = (imageInput) ? null : mCodec.getInputBuffer(index);
                     while (size < 0 && !done) {
                         try {
-                            size = queueInputBufferEncoder(
-                                    mCodec,
-                                    buffer,
-                                    index,
-                                    mInFramesCount,
-                                    flags,
-                                    mRefFramesizeInBytes);
+                            if (imageInput) {
+                                size = queueInputImageEncoder(
+                                        mCodec,
+                                        index,
+                                        mInFramesCount,
+                                        flags,
+                                        mRefFramesizeInBytes);
+                            } else {
+                                size = queueInputBufferEncoder(
+                                        mCodec,
+                                        buffer,
+                                        index,
+                                        mInFramesCount,
+                                        flags,
+                                        mRefFramesizeInBytes);
+                            }
 
                             mInFramesCount++;
                         } catch (IllegalStateException isx) {
@@ -175,7 +222,7 @@ class BufferEncoder extends Encoder {
 
                             if (!done) {
                                 Log.d(TAG, " *********** OPEN FILE AGAIN *******");
-                                mYuvReader.openFile(test.getInput().getFilepath());
+                                mYuvReader.openFile(checkFilePath(test.getInput().getFilepath()));
                                 Log.d(TAG, "*** Loop ended start " + current_loop + "***");
                             }
                         }
@@ -218,9 +265,12 @@ class BufferEncoder extends Encoder {
         mStats.stop();
 
         Log.d(TAG, "Close muxer and streams");
+        if (mFeeder != null) {
+            mFeeder.stopFeeding();
+        }
+        stopDataWriter();
         if (mCodec != null) {
-            mCodec.stop();
-            mCodec.release();
+            recycleCodec();
         }
         if (mMuxer != null) {
             try {
@@ -231,11 +281,126 @@ class BufferEncoder extends Encoder {
             }
         }
 
+        if (mCallbackThread != null) {
+            mCallbackThread.quitSafely();
+        }
         mYuvReader.closeFile();
         return "";
     }
 
+    /**
+     * Starts feeding the codec and waits until the data writer has received the end of
+     * stream.
+     */
+    private void waitForAsyncEncoding() {
+        mFeeder.start();
+
+        try {
+            while (mDataWriter.isAlive()) {
+                mDataWriter.join(WAIT_TIME_MS);
+                if (mDataWriter.isAlive() && mInputDone) {
+                    Log.e(TAG, "No end of stream from encoder, stop writer");
+                    mDataWriter.stopWriter();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Callback thread, the buffer is filled by the feeder.
+     */
     public void writeToBuffer(@NonNull MediaCodec codec, int index, boolean encoder) {
+        if (!mAsync || mInputDone) {
+            return;
+        }
+        mFeeder.addBuffer(index);
+    }
+
+    /**
+     * Feeder thread, fills one input buffer or queues the end of stream.
+     */
+    private void fillBuffer(MediaCodec codec, int index) {
+        if (mFramesAdded % 100 == 0) {
+            Log.d(TAG, "Frames: " + mFramesAdded + " - inframes: " + mInFramesCount +
+                    ", current loop: " + mCurrentLoop + ", current time: " + mCurrentTimeSec + " sec");
+        }
+
+        try {
+            if (doneReading(mTest, mInFramesCount, mCurrentTimeSec, false)) {
+                queueEndOfStream(codec, index);
+                return;
+            }
+            ByteBuffer buffer = (mImageInput) ? null : codec.getInputBuffer(index);
+            int size = -1;
+            while (size < 0) {
+                if (mImageInput) {
+                    size = queueInputImageEncoder(codec, index, mInFramesCount, 0, mRefFramesizeInBytes);
+                } else {
+                    size = queueInputBufferEncoder(codec, buffer, index, mInFramesCount, 0, mRefFramesizeInBytes);
+                }
+                mInFramesCount++;
+                if (size == -2) {
+                    continue;
+                } else if (size <= 0) {
+                    mYuvReader.closeFile();
+                    mCurrentLoop++;
+                    if (doneReading(mTest, mInFramesCount, mCurrentTimeSec, true)) {
+                        queueEndOfStream(codec, index);
+                        return;
+                    }
+                    Log.d(TAG, " *********** OPEN FILE AGAIN *******");
+                    mYuvReader.openFile(checkFilePath(mTest.getInput().getFilepath()));
+                    Log.d(TAG, "*** Loop ended start " + mCurrentLoop + "***");
+                }
+            }
+        } catch (IllegalStateException isx) {
+            Log.e(TAG, "Queue encoder failed, " + index + ", mess: " + isx.getMessage());
+        }
+    }
+
+    private class InputFeeder extends Thread {
+        // Input buffer indices from the callback thread, kept until the feeder is started
+        final SpscIntQueue mInputBuffers = new SpscIntQueue(INPUT_QUEUE_SIZE);
+        volatile boolean mDone = false;
+
+        InputFeeder() {
+            super("BufferEncoder_feeder");
+        }
+
+        @Override
+        public void run() {
+            while (!mDone && !mInputDone) {
+                int index = mInputBuffers.poll();
+                if (index == SpscIntQueue.EMPTY) {
+                    mInputBuffers.await(WAIT_TIME_SHORT_MS * 1000000L);
+                    continue;
+                }
+                fillBuffer(mCodec, index);
+            }
+        }
+
+        void addBuffer(int index) {
+            mInputBuffers.put(index);
+        }
+
+        void stopFeeding() {
+            mDone = true;
+            mInputBuffers.wake();
+            try {
+                join(WAIT_TIME_SHORT_MS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void queueEndOfStream(MediaCodec codec, int index) {
+        Log.d(TAG, "Queue end of stream");
+        mInputDone = true;
+        long ptsUsec = computePresentationTimeUsec(mInFramesCount, mRefFrameTime);
+        codec.queueInputBuffer(index, 0, 0, ptsUsec, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
     }
 
     public void readFromBuffer(@NonNull MediaCodec codec, int index, boolean encoder, MediaCodec.BufferInfo info) {
@@ -1,14 +1,15 @@
 package com.facebook.encapp;
 
+import android.media.Image;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
+import android.util.Size;
 
 import androidx.annotation.NonNull;
 
@@ -16,30 +17,48 @@ import com.facebook.encapp.proto.Configure;
 import com.facebook.encapp.proto.DataValueType;
 import com.facebook.encapp.proto.Runtime;
 import com.facebook.encapp.proto.Test;
+import com.facebook.encapp.utils.AnnexBWriter;
 import com.facebook.encapp.utils.Assert;
+import com.facebook.encapp.utils.CachedFileReader;
+import com.facebook.encapp.utils.CodecCatalog;
+import com.facebook.encapp.utils.CodecPool;
 import com.facebook.encapp.utils.FileReader;
 import com.facebook.encapp.utils.FpsMeasure;
 import com.facebook.encapp.utils.FrameBuffer;
+import com.facebook.encapp.utils.FrameBufferPool;
+import com.facebook.encapp.utils.FramePacer;
+import com.facebook.encapp.utils.HashSink;
+import com.facebook.encapp.utils.ImageInputWriter;
+import com.facebook.encapp.utils.IvfWriter;
+import com.facebook.encapp.utils.MappedFileReader;
+import com.facebook.encapp.utils.MuxerSink;
+import com.facebook.encapp.utils.OutputSink;
+import com.facebook.encapp.utils.PrefetchFileReader;
+import com.facebook.encapp.utils.RuntimeSchedule;
+import com.facebook.encapp.utils.SizeUtils;
+import com.facebook.encapp.utils.SpscRingBuffer;
 import com.facebook.encapp.utils.Statistics;
+import com.facebook.encapp.utils.SyntheticFrameReader;
 import com.facebook.encapp.utils.TestDefinitionHelper;
+import com.facebook.encapp.utils.Y4mFileReader;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
-import java.util.Vector;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public abstract class Encoder {
     protected static final String TAG = "encapp.encoder";
     protected static final long VIDEO_CODEC_WAIT_TIME_US = 1000000;
     final static int WAIT_TIME_MS = 30000;  // 30 secs
     final static int WAIT_TIME_SHORT_MS = 1000;  // 1 sec
+    final static int WRITER_QUEUE_SIZE = 64;
     protected float mFrameRate = 30;
     protected float mKeepInterval = 1.0f;
     protected MediaCodec mCodec;
-    protected MediaMuxer mMuxer;
+    protected OutputSink mMuxer;
     protected int mSkipped = 0;
     protected int mFramesAdded = 0;
     protected int mRefFramesizeInBytes = (int) (1280 * 720 * 1.5);
@@ -51,14 +70,23 @@ public abstract class Encoder {
     protected Test mTest;
     protected boolean mDropNext;
     protected Runtime mRuntimeParams;
+    protected RuntimeSchedule mRuntimeSchedule;
     protected FileReader mYuvReader;
+    ImageInputWriter mImageWriter;
+    ByteBuffer mImageStaging;
     protected int mVideoTrack = -1;
     int mPts = 132;
-    long mLastTime = -1;
+    FramePacer mPacer = new FramePacer();
+    // Codec pool key and setup timing, see acquireCodec()
+    String mCodecName;
+    String mCodecMode;
+    boolean mCodecReused = false;
+    long mSetupStartNs = -1;
     long mFirstTime = -1;
     boolean mRealtime = false;
     double mCurrentTimeSec;
-    double mFirstFrameTimestampUsec = -1;
+    // Read by the renderer thread in renderDecision()
+    volatile double mFirstFrameTimestampUsec = -1;
     float mReferenceFrameRate = 30;
     int mOutFramesCount = 0;
     int mInFramesCount = 0;
@@ -165,50 +193,47 @@ public abstract class Encoder {
     }
 
     public String checkFilePath(String path) {
-        if (path.startsWith(Environment.getExternalStorageDirectory().getPath())) {
-            return path;
-        }
+        return TestDefinitionHelper.resolveFilePath(path);
+    }
 
-        int last_dir = path.lastIndexOf('/');
-        if (last_dir == -1) {
-            return Environment.getExternalStorageDirectory().getPath() + "/" + path;
+    /**
+     * Creates the raw frame reader selected by the input settings of the test.
+     */
+    protected FileReader createFileReader(Test test) {
+        FileReader reader;
+        if (SyntheticFrameReader.isSynthetic(test.getInput().getFilepath())) {
+            Size res = SizeUtils.parseXString(test.getInput().getResolution());
+            reader = new SyntheticFrameReader(res.getWidth(), res.getHeight(), test.getInput().getPixFmt());
+        } else if (Y4mFileReader.isY4m(test.getInput().getFilepath())) {
+            reader = new Y4mFileReader();
+        } else if (test.getInput().getMemoryMapped()) {
+            Log.d(TAG, "Use memory mapped input");
+            reader = new MappedFileReader();
+        } else {
+            reader = new FileReader();
+        }
+        if (test.getInput().getFrameCacheMb() > 0 && !(reader instanceof SyntheticFrameReader)) {
+            Log.d(TAG, "Use frame cache, budget: " + test.getInput().getFrameCacheMb() + " MB");
+            reader = new CachedFileReader(reader, test.getInput().getFrameCacheMb() * 1024L * 1024L);
+        }
+        if (test.getInput().getPrefetchFrames() > 0) {
+            Log.d(TAG, "Prefetch " + test.getInput().getPrefetchFrames() + " frames");
+            PrefetchFileReader prefetcher = new PrefetchFileReader(
+                    reader, test.getInput().getPrefetchFrames(), mRefFramesizeInBytes);
+            if (mStats != null) {
+                mStats.setInputPrefetcher(prefetcher);
+            }
+            reader = prefetcher;
         }
-
-        return Environment.getExternalStorageDirectory().getPath() + "/" + path.substring(last_dir);
+        return reader;
     }
 
     protected void sleepUntilNextFrame(double frameTimeUsec) {
-        long now = System.nanoTime() / 1000; //To Us
-        long sleepTimeMs = (long)(frameTimeUsec - (now - mLastTime)) / 1000; //To ms
-        if (sleepTimeMs < 0) {
-            // We have been delayed. Run forward.
-            sleepTimeMs = 0;
-        }
-        if (sleepTimeMs > 0) {
-            try {
-                Thread.sleep(sleepTimeMs);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        mLastTime = now;
+        mPacer.awaitNextFrame(frameTimeUsec);
     }
 
     protected void sleepUntilNextFrame() {
-        long now = System.nanoTime() / 1000; //To Us
-        long sleepTimeMs = (long)(mFrameTimeUsec - (now - mLastTime)) / 1000; //To ms
-        if (sleepTimeMs < 0) {
-            // We have been delayed. Run forward.
-            sleepTimeMs = 0;
-        }
-        if (sleepTimeMs > 0) {
-            try {
-                Thread.sleep(sleepTimeMs);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        mLastTime = now;
+        mPacer.awaitNextFrame(mFrameTimeUsec);
     }
 
 
@@ -227,7 +252,22 @@ public abstract class Encoder {
         return mInitDone;
     }
 
-    protected MediaMuxer createMuxer(MediaCodec encoder, MediaFormat format, boolean useStatId) {
+    protected OutputSink createMuxer(MediaCodec encoder, MediaFormat format, boolean useStatId) {
+        if (mTest != null && mTest.getConfigure().getOutputSink() == Configure.OutputSink.hash) {
+            Log.d(TAG, "Hash only output, nothing is stored");
+            mFilename = "";
+            mMuxer = new HashSink(mStats);
+            mStats.setEncodedfile(mFilename);
+            return mMuxer;
+        }
+        if (mTest != null && mTest.getConfigure().getOutputSink() == Configure.OutputSink.elementary) {
+            OutputSink writer = createElementaryStreamWriter(format);
+            if (writer != null) {
+                mMuxer = writer;
+                mStats.setEncodedfile(mFilename);
+                return mMuxer;
+            }
+        }
         if (!useStatId) {
             Log.d(TAG, "Bitrate mode: " + (format.containsKey(MediaFormat.KEY_BITRATE_MODE) ? format.getInteger(MediaFormat.KEY_BITRATE_MODE) : 0));
             mFilename = String.format(Locale.US, Environment.getExternalStorageDirectory().getPath() + "/%s_%dfps_%dx%d_%dbps_iint%d_m%d.mp4",
@@ -260,7 +300,7 @@ public abstract class Encoder {
         try {
             String fullFilename = Environment.getExternalStorageDirectory().getPath() + "/" + mFilename;
             Log.d(TAG, "Create mMuxer with type " + type + " and filename: " + fullFilename);
-            mMuxer = new MediaMuxer(fullFilename, type);
+            mMuxer = new MuxerSink(fullFilename, type);
         } catch (IOException e) {
             Log.d(TAG, "FAILED Create mMuxer with type " + type + " and filename: " + mFilename);
             e.printStackTrace();
@@ -270,44 +310,138 @@ public abstract class Encoder {
         return mMuxer;
     }
 
+    /**
+     * Creates an Annex-B or IVF writer depending on the output mime type.
+     *
+     * @return null if the mime type has no elementary stream format.
+     */
+    private OutputSink createElementaryStreamWriter(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        String fourcc = IvfWriter.getFourcc(mime);
+        String extension;
+        if (MediaFormat.MIMETYPE_VIDEO_AVC.equals(mime)) {
+            extension = ".h264";
+        } else if (MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mime)) {
+            extension = ".hevc";
+        } else if (fourcc != null) {
+            extension = ".ivf";
+        } else {
+            Log.w(TAG, "No elementary stream format for " + mime + ", use muxer");
+            return null;
+        }
+        mFilename = mStats.getId() + extension;
+        String fullFilename = Environment.getExternalStorageDirectory().getPath() + "/" + mFilename;
+        Log.d(TAG, "Create elementary stream writer, filename: " + fullFilename);
+        try {
+            if (fourcc != null) {
+                Size size = SizeUtils.parseXString(mTest.getConfigure().getResolution());
+                int width = format.containsKey(MediaFormat.KEY_WIDTH) ? format.getInteger(MediaFormat.KEY_WIDTH) : size.getWidth();
+                int height = format.containsKey(MediaFormat.KEY_HEIGHT) ? format.getInteger(MediaFormat.KEY_HEIGHT) : size.getHeight();
+                return new IvfWriter(fullFilename, fourcc, width, height);
+            }
+            return new AnnexBWriter(fullFilename);
+        } catch (IOException e) {
+            Log.e(TAG, "FAILED to create elementary stream writer: " + e.getMessage());
+            return null;
+        }
+    }
+
     public String getOutputFilename() {
         return mFilename;
     }
 
-    @NonNull
-    protected Vector<MediaCodecInfo> getMediaCodecInfos(MediaCodecInfo[] codecInfos, String id) {
-        Vector<MediaCodecInfo> matching = new Vector<>();
-        for (MediaCodecInfo info : codecInfos) {
-            //Handle special case of codecs with naming schemes consisting of substring of another
+    public Statistics getStatistics() {
+        return mStats;
+    }
 
-            if (info.isEncoder()) {
-                if (info.getSupportedTypes().length > 0 &&
-                        info.getSupportedTypes()[0].toLowerCase(Locale.US).contains("video")) {
-                    if (info.getName().toLowerCase(Locale.US).equals(id.toLowerCase(Locale.US))) {
-                        //Break on exact match
-                        matching.clear();
-                        matching.add(info);
-                        break;
-                    } else if (info.getName().toLowerCase(Locale.US).contains(id.toLowerCase(Locale.US))) {
-                        matching.add(info);
-                    }
-                }
-            }
+    public void setPacerSpin(boolean spin) {
+        mPacer.setSpin(spin);
+    }
+
+    /**
+     * Renderer thread, frame listener of the encoder surface. The frame number is passed
+     * with the decoded buffer, a kept frame is drawn and encoded. mFramesAdded and mSkipped
+     * are only updated here.
+     */
+    void renderDecision(long timestampUsec, int frame, boolean kept) {
+        if (frame < 0) {
+            return;
+        }
+        if (kept) {
+            long ptsUsec = mPts + (timestampUsec - (long) mFirstFrameTimestampUsec);
+            mStats.startEncodingFrame(ptsUsec, frame);
+            mFramesAdded++;
+        } else {
+            mSkipped++;
         }
-        return matching;
     }
 
-    public Statistics getStatistics() {
-        return mStats;
+    /**
+     * @return statistics of outputs other than the main encoder, e.g. ladder rungs.
+     */
+    public List<Statistics> getOutputStatistics() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Gets the encoder from the codec pool, setup time is measured from here.
+     */
+    protected MediaCodec acquireCodec(String name, String mode) throws IOException {
+        mSetupStartNs = System.nanoTime();
+        CodecPool.Acquired acquired = CodecPool.acquire(name, mode);
+        mCodecName = name;
+        mCodecMode = mode;
+        mCodecReused = acquired.mReused;
+        return acquired.mCodec;
+    }
+
+    /**
+     * Call when the codec is started, reports the setup time.
+     */
+    protected void codecSetupDone() {
+        if (mSetupStartNs >= 0) {
+            mStats.setCodecSetup(System.nanoTime() - mSetupStartNs, mCodecReused);
+        }
+    }
+
+    /**
+     * Stops the data writer and waits for it to exit.
+     *
+     * @return false if the writer is still running.
+     */
+    protected boolean stopDataWriter() {
+        mDataWriter.stopWriter();
+        try {
+            mDataWriter.join(WAIT_TIME_SHORT_MS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return !mDataWriter.isAlive();
+    }
+
+    /**
+     * Hands the encoder back to the codec pool instead of releasing it.
+     *
+     * The data writer is stopped first, it must not touch output buffers of a codec that is
+     * reset and configured for the next test. A codec whose writer did not exit is released.
+     */
+    protected void recycleCodec() {
+        boolean drained = stopDataWriter();
+        if (!drained) {
+            Log.w(TAG, "Data writer did not stop, release codec");
+        }
+        if (mCodecName != null && drained) {
+            CodecPool.recycle(mCodec, mCodecName, mCodecMode);
+        } else {
+            mCodec.stop();
+            mCodec.release();
+        }
     }
 
     protected Test setCodecNameAndIdentifier(Test test) {
         String partialName = test.getConfigure().getCodec();
-        MediaCodecList codecList = new MediaCodecList(MediaCodecList.ALL_CODECS);
-
-        MediaCodecInfo[] codecInfos = codecList.getCodecInfos();
         String codecName = "";
-        Vector<MediaCodecInfo> matching = getMediaCodecInfos(codecInfos, partialName);
+        List<MediaCodecInfo> matching = CodecCatalog.get().findEncoders(partialName);
 
         if (matching.size() > 1) {
             StringBuilder sb = new StringBuilder();
@@ -367,73 +501,25 @@ public abstract class Encoder {
     }
 
     public void setRuntimeParameters(int frame) {
-        // go through all runtime settings and see which are due
-        if (mRuntimeParams == null) return;
-        Bundle bundle = new Bundle();
-        for (Runtime.VideoBitrateParameter bitrate : mRuntimeParams.getVideoBitrateList()) {
-            if (bitrate.getFramenum() == frame) {
-                bundle.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE,
-                        TestDefinitionHelper.magnitudeToInt(bitrate.getBitrate()));
-                break;
-            }
-        }
-
-        for (Long sync : mRuntimeParams.getRequestSyncList()) {
-            if (sync == frame) {
-                bundle.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, frame);
-                break;
-            }
-        }
-
-        for (Runtime.Parameter param : mRuntimeParams.getParameterList()) {
-            if (param.getFramenum() == frame) {
-                Log.d(TAG, "Set runtime parameter @ " + frame + " key: " + param.getKey() + ", " + param.getType() + ", " + param.getValue());
-                switch (param.getType().getNumber()) {
-                    case DataValueType.floatType_VALUE:
-                        float fval = Float.parseFloat(param.getValue());
-                        bundle.putFloat(param.getKey(), fval);
-                        break;
-                    case DataValueType.intType_VALUE:
-                        int ival = TestDefinitionHelper.magnitudeToInt(param.getValue());
-                        bundle.putInt(param.getKey(), ival);
-                        break;
-                    case DataValueType.longType_VALUE:
-                        long lval = Long.parseLong(param.getValue());
-                        bundle.putLong(param.getKey(), lval);
-                        break;
-                    case DataValueType.stringType_VALUE:
-                        bundle.putString(param.getKey(), param.getValue());
-                        break;
-                    default:
-                        ///Should not be here
-                }
-            }
-        }
-
-        if (bundle.keySet().size() > 0 && mCodec != null) {
+        if (mRuntimeSchedule == null) return;
+        Bundle bundle = mRuntimeSchedule.getParameters(frame);
+        if (bundle != null && mCodec != null) {
+            Log.d(TAG, "Set runtime parameters @ " + frame + ": " + bundle.keySet());
             mCodec.setParameters(bundle);
         }
     }
 
     boolean dropFrame(long frame) {
-        if (mRuntimeParams == null) return false;
-        for (Long drop : mRuntimeParams.getDropList()) {
-            if (drop.longValue() == frame) {
-                return true;
-            }
-        }
-
-        return false;
+        if (mRuntimeSchedule == null) return false;
+        return mRuntimeSchedule.isDropped(frame);
     }
 
     void updateDynamicFramerate(long frame) {
-        if (mRuntimeParams == null) return;
-        for (Runtime.DynamicFramerateParameter rate : mRuntimeParams.getDynamicFramerateList()) {
-            if (rate.getFramenum() == frame) {
-                mKeepInterval = mFrameRate / rate.getFramerate();
-                mFrameTimeUsec = calculateFrameTimingUsec(rate.getFramerate());
-                return;
-            }
+        if (mRuntimeSchedule == null) return;
+        float framerate = mRuntimeSchedule.getFramerate(frame);
+        if (framerate > 0) {
+            mKeepInterval = mFrameRate / framerate;
+            mFrameTimeUsec = calculateFrameTimingUsec(framerate);
         }
     }
 
@@ -453,8 +539,45 @@ public abstract class Encoder {
     protected int queueInputBufferEncoder(
             MediaCodec codec, ByteBuffer buffer, int index, int frameCount, int flags, int size) {
         buffer.clear();
-        int read = mYuvReader.fillBuffer(buffer, size);
-        long ptsUsec = computePresentationTimeUsec(frameCount, mRefFrameTime);
+        int read = checkInputFrame(mYuvReader.fillBuffer(buffer, size), size);
+        if (read > 0) {
+            queueInputFrame(codec, index, frameCount, flags, read);
+        }
+        return read;
+    }
+
+    /**
+     * Fills the input image for encoder from YUV buffers, honoring the plane layout
+     * (row and pixel stride) of the codec.
+     *
+     * @return size of enqueued data.
+     */
+    protected int queueInputImageEncoder(
+            MediaCodec codec, int index, int frameCount, int flags, int size) {
+        if (mImageWriter == null) {
+            Size res = SizeUtils.parseXString(mTest.getInput().getResolution());
+            mImageWriter = new ImageInputWriter(res.getWidth(), res.getHeight(), mTest.getInput().getPixFmt());
+            mImageStaging = ByteBuffer.allocateDirect(size);
+        }
+        mImageStaging.clear();
+        int read = checkInputFrame(mYuvReader.fillBuffer(mImageStaging, size), size);
+        if (read > 0) {
+            mImageStaging.position(0);
+            Image image = codec.getInputImage(index);
+            mImageWriter.write(mImageStaging, image);
+            queueInputFrame(codec, index, frameCount, flags, read);
+        }
+        return read;
+    }
+
+    /**
+     * Applies the runtime parameters and drops for the frame just read, shared by the buffer
+     * and image input.
+     *
+     * @return read if the frame is to be queued, -2 if it is dropped and -1 if the read
+     * was short.
+     */
+    private int checkInputFrame(int read, int size) {
         setRuntimeParameters(mInFramesCount);
         mDropNext = dropFrame(mInFramesCount);
         mDropNext |= dropFromDynamicFramerate(mInFramesCount);
@@ -462,19 +585,19 @@ public abstract class Encoder {
         if (mDropNext) {
             mSkipped++;
             mDropNext = false;
-            read = -2;
-        } else if (read == size) {
-            mFramesAdded++;
-            if (mRealtime) {
-                sleepUntilNextFrame();
-            }
-            mStats.startEncodingFrame(ptsUsec, frameCount);
-            codec.queueInputBuffer(index, 0 /* offset */, read, ptsUsec /* timeUs */, flags);
-        } else {
-            read = -1;
+            return -2;
         }
+        return (read == size) ? read : -1;
+    }
 
-        return read;
+    private void queueInputFrame(MediaCodec codec, int index, int frameCount, int flags, int size) {
+        long ptsUsec = computePresentationTimeUsec(frameCount, mRefFrameTime);
+        mFramesAdded++;
+        if (mRealtime) {
+            sleepUntilNextFrame();
+        }
+        mStats.startEncodingFrame(ptsUsec, frameCount);
+        codec.queueInputBuffer(index, 0 /* offset */, size, ptsUsec /* timeUs */, flags);
     }
 
 
@@ -483,83 +606,80 @@ public abstract class Encoder {
     public abstract void readFromBuffer(@NonNull MediaCodec codec, int index, boolean encoder, MediaCodec.BufferInfo info);
 
     protected class DataWriter extends Thread {
-        ConcurrentLinkedQueue<FrameBuffer> mEncodeBuffers = new ConcurrentLinkedQueue<>();
-        boolean mDone = false;
+        // Single producer (codec callback) and single consumer (this thread)
+        SpscRingBuffer<FrameBuffer> mEncodeBuffers = new SpscRingBuffer<>(WRITER_QUEUE_SIZE);
+        FrameBufferPool mFramePool = new FrameBufferPool(WRITER_QUEUE_SIZE);
+        volatile boolean mDone = false;
 
         public void stopWriter() {
             mDone = true;
+            mEncodeBuffers.wake();
         }
 
+        public SpscRingBuffer<FrameBuffer> getQueue() {
+            return mEncodeBuffers;
+        }
 
         @Override
         public void run() {
             while (!mDone) {
-                while (mEncodeBuffers.size() > 0) {
-                    FrameBuffer buffer = mEncodeBuffers.poll();
-                    if (buffer == null) {
-                        Log.e(TAG, "Buffer empty");
-                        continue;
-                    }
-
-                    if ((buffer.mInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        MediaFormat oformat = mCodec.getOutputFormat();
-                        mStats.setEncoderMediaFormat(mCodec.getInputFormat());
-                        Log.d(TAG, "Start muxer: " + mMuxer +", write? " + mWriteFile);
-                        if (mWriteFile && mMuxer != null) {
-                            mVideoTrack = mMuxer.addTrack(oformat);
-                            Log.d(TAG, "Start muxer, track = " + mVideoTrack);
-                            mMuxer.start();
-                        }
-                        mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
-                    } else {
-                        if ((buffer.mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                            Log.d(TAG, "End of stream: ");
-                            mDone = true;
-                        }
-                        if (mFirstFrameTimestampUsec != -1) {
-                            long timestampUsec = mPts + (long) (buffer.mInfo.presentationTimeUs - mFirstFrameTimestampUsec);
-                            if (timestampUsec < 0) {
-                                mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
-                                continue;
-                            }
-                            try {
-                                mStats.stopEncodingFrame(timestampUsec, buffer.mInfo.size,
-                                        (buffer.mInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
-                                ++mOutFramesCount;
-                                if (mMuxer != null && mVideoTrack != -1) {
-                                    ByteBuffer data = mCodec.getOutputBuffer(buffer.mBufferId);
-                                    mMuxer.writeSampleData(mVideoTrack, data, buffer.mInfo);
-                                }
+                FrameBuffer buffer;
+                while ((buffer = mEncodeBuffers.poll()) != null) {
+                    writeBuffer(buffer);
+                    mFramePool.recycle(buffer);
+                }
 
-                                mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
-                            } catch (Exception ise) {
-                                // Codec may be closed elsewhere...
-                                Log.e(TAG, "Writing failed: " + ise.getMessage());
-                            }
-                            mCurrentTimeSec = timestampUsec / 1000000.0;
-                        } else {
-                            mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
-                        }
-                    }
+                if (!mDone) {
+                    mEncodeBuffers.await(WAIT_TIME_SHORT_MS * 1000000L);
                 }
+            }
+        }
 
-                synchronized (mEncodeBuffers) {
-                    if (mEncodeBuffers.size() == 0 && !mDone) {
-                        try {
-                            mEncodeBuffers.wait(WAIT_TIME_SHORT_MS);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+        private void writeBuffer(FrameBuffer buffer) {
+            if ((buffer.mInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                MediaFormat oformat = mCodec.getOutputFormat();
+                mStats.setEncoderMediaFormat(mCodec.getInputFormat());
+                Log.d(TAG, "Start muxer: " + mMuxer +", write? " + mWriteFile);
+                if (mWriteFile && mMuxer != null) {
+                    mVideoTrack = mMuxer.addTrack(oformat);
+                    Log.d(TAG, "Start muxer, track = " + mVideoTrack);
+                    mMuxer.start();
+                }
+                mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
+            } else {
+                if ((buffer.mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    Log.d(TAG, "End of stream: ");
+                    mDone = true;
+                }
+                if (mFirstFrameTimestampUsec != -1) {
+                    long timestampUsec = mPts + (long) (buffer.mInfo.presentationTimeUs - mFirstFrameTimestampUsec);
+                    if (timestampUsec < 0) {
+                        mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
+                        return;
+                    }
+                    try {
+                        mStats.stopEncodingFrame(timestampUsec, buffer.mInfo.size,
+                                (buffer.mInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+                        ++mOutFramesCount;
+                        if (mMuxer != null && mVideoTrack != -1) {
+                            ByteBuffer data = mCodec.getOutputBuffer(buffer.mBufferId);
+                            mMuxer.writeSampleData(mVideoTrack, data, buffer.mInfo);
                         }
+
+                        mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
+                    } catch (Exception ise) {
+                        // Codec may be closed elsewhere...
+                        Log.e(TAG, "Writing failed: " + ise.getMessage());
                     }
+                    mCurrentTimeSec = timestampUsec / 1000000.0;
+                } else {
+                    mCodec.releaseOutputBuffer(buffer.mBufferId, false /* render */);
                 }
             }
         }
 
         public void addBuffer(MediaCodec codec, int id, MediaCodec.BufferInfo info) {
-            mEncodeBuffers.add(new FrameBuffer(codec, id, info));
-            synchronized (mEncodeBuffers) {
-                mEncodeBuffers.notifyAll();
-            }
+            mEncodeBuffers.put(mFramePool.obtain(codec, id, info));
         }
     }
 
@@ -0,0 +1,175 @@
+package com.facebook.encapp;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.encapp.proto.Test;
+import com.facebook.encapp.utils.CodecPool;
+import com.facebook.encapp.utils.FrameswapControl;
+import com.facebook.encapp.utils.OutputMultiplier;
+import com.facebook.encapp.utils.SizeUtils;
+import com.facebook.encapp.utils.Statistics;
+import com.facebook.encapp.utils.TestDefinitionHelper;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * One extra output of a ladder transcode.
+ *
+ * The rung encoder is an output surface of the transcoder's OutputMultiplier, the renderer
+ * scales the decoded frame to the rung resolution. Codec, statistics, data writer and
+ * output file belong to the rung, frames are reported by the transcoder.
+ */
+class LadderRung extends Encoder {
+    private final String TAG = "encapp.ladderrung";
+    private final OutputMultiplier mOutputMult;
+    private FrameswapControl mFrameSwapSurface;
+
+    /**
+     * @param sourceFramerate frame rate of the decoded frames, the rung is decimated from it.
+     */
+    LadderRung(OutputMultiplier multiplier, float sourceFramerate) {
+        mOutputMult = multiplier;
+        mReferenceFrameRate = sourceFramerate;
+    }
+
+    /**
+     * Creates and starts the encoder, it is fed from the multiplier until release().
+     *
+     * @param test the rung test, see TestDefinitionHelper.getLadderRungTest().
+     * @return empty string or the failure.
+     */
+    public String start(Test test) {
+        mTest = test;
+        Log.d(TAG, "**** Ladder rung - " + mTest.getCommon().getDescription() + " ***");
+        mStats = new Statistics("ladder rung", mTest);
+        mStats.setWriterQueue(mDataWriter.getQueue());
+        mFrameRate = mTest.getConfigure().getFramerate();
+        try {
+            if (mTest.getConfigure().getMime().length() == 0) {
+                mTest = setCodecNameAndIdentifier(mTest);
+            }
+            Log.d(TAG, "Create encoder by name: " + mTest.getConfigure().getCodec());
+            mCodec = acquireCodec(mTest.getConfigure().getCodec(), CodecPool.MODE_SURFACE);
+
+            MediaFormat format = TestDefinitionHelper.buildMediaFormat(mTest);
+            Size size = SizeUtils.parseXString(mTest.getConfigure().getResolution());
+            format.setInteger(MediaFormat.KEY_WIDTH, size.getWidth());
+            format.setInteger(MediaFormat.KEY_HEIGHT, size.getHeight());
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            setConfigureParams(mTest, format);
+            checkMediaFormat(format);
+
+            mCodec.setCallback(new EncoderCallbackHandler());
+            mCodec.configure(
+                    format,
+                    null /* surface */,
+                    null /* crypto */,
+                    MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mFrameSwapSurface = mOutputMult.addSurface(mCodec.createInputSurface());
+            mStats.setRenderOutput(mFrameSwapSurface);
+            mFrameSwapSurface.setFramerate(mReferenceFrameRate, mFrameRate);
+            mFrameSwapSurface.setFrameListener(new FrameswapControl.FrameListener() {
+                @Override
+                public void onFrame(long timestampUsec, int frame, boolean kept) {
+                    renderDecision(timestampUsec, frame, kept);
+                }
+            });
+            mStats.setEncoderMediaFormat(mCodec.getInputFormat());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                mStats.setCodec(mCodec.getCanonicalName());
+            } else {
+                mStats.setCodec(mCodec.getName());
+            }
+
+            mMuxer = createMuxer(mCodec, format, true);
+            boolean isVP = mCodec.getCodecInfo().getName().toLowerCase(Locale.US).contains(".vp");
+            if (isVP) {
+                mVideoTrack = mMuxer.addTrack(mCodec.getOutputFormat());
+                mMuxer.start();
+            }
+
+            mCodec.start();
+            codecSetupDone();
+        } catch (IOException iox) {
+            Log.e(TAG, "Failed to create codec: " + iox.getMessage());
+            return "Failed to create rung codec";
+        } catch (MediaCodec.CodecException cex) {
+            Log.e(TAG, "Configure failed: " + cex.getMessage());
+            return "Failed to create rung codec";
+        } catch (IllegalStateException ise) {
+            Log.e(TAG, "Start failed: " + ise.getMessage());
+            return "Start rung encoding failed";
+        }
+        mInitDone = true;
+        return "";
+    }
+
+    /**
+     * The first frame of the transcode, output timestamps start here.
+     */
+    public void firstFrame(long timestampUsec) {
+        mFirstFrameTimestampUsec = timestampUsec;
+        Bundle bundle = new Bundle();
+        bundle.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        if (mCodec != null) {
+            mCodec.setParameters(bundle);
+        }
+    }
+
+    public void startStats() {
+        mStats.start();
+    }
+
+    /**
+     * Stops the statistics and closes the output file.
+     */
+    public void stop() {
+        mStats.stop();
+        stopDataWriter();
+        if (mMuxer != null) {
+            try {
+                mMuxer.release();
+            } catch (IllegalStateException ise) {
+                Log.e(TAG, "Illegal state exception when trying to release the muxer: " + ise.getMessage());
+            }
+            mMuxer = null;
+        }
+        Log.d(TAG, mTest.getCommon().getDescription() + ", frames: " + mFramesAdded + ", encoded: " + mOutFramesCount);
+    }
+
+    /**
+     * Detaches the rung from the multiplier and releases the encoder.
+     */
+    public void release() {
+        // No more draws into the input surface once removed, then the codec can be reset
+        if (mFrameSwapSurface != null) {
+            mOutputMult.removeFrameSwapControl(mFrameSwapSurface);
+            mFrameSwapSurface = null;
+        }
+        try {
+            if (mCodec != null) {
+                mCodec.flush();
+                recycleCodec();
+                mCodec = null;
+            }
+        } catch (IllegalStateException iex) {
+            Log.e(TAG, "Failed to shut down:" + iex.getLocalizedMessage());
+        }
+        stopDataWriter();
+    }
+
+    public void writeToBuffer(@NonNull MediaCodec codec, int index, boolean encoder) {
+    }
+
+    public void readFromBuffer(@NonNull MediaCodec codec, int index, boolean encoder, MediaCodec.BufferInfo info) {
+    }
+}
@@ -7,8 +7,6 @@ import android.content.pm.PackageManager;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -31,12 +29,15 @@ import androidx.core.app.ActivityCompat;
 import com.facebook.encapp.proto.Test;
 import com.facebook.encapp.proto.Tests;
 import com.facebook.encapp.utils.CameraSource;
-import com.facebook.encapp.utils.MediaCodecInfoHelper;
+import com.facebook.encapp.utils.CodecCatalog;
+import com.facebook.encapp.utils.CodecPool;
 import com.facebook.encapp.utils.MemoryLoad;
 import com.facebook.encapp.utils.OutputMultiplier;
 import com.facebook.encapp.utils.ParseData;
 import com.facebook.encapp.utils.SizeUtils;
 import com.facebook.encapp.utils.Statistics;
+import com.facebook.encapp.utils.SyntheticFrameReader;
+import com.facebook.encapp.utils.Y4mFileReader;
 import com.facebook.encapp.utils.grafika.Texture2dProgram;
 import java.io.FileInputStream;
 import java.io.FileWriter;
@@ -167,43 +168,13 @@ public class MainActivity extends AppCompatActivity {
 
     protected void listCodecs() {
         Log.d(TAG, "List codecs");
-        MediaCodecList codecList = new MediaCodecList(MediaCodecList.ALL_CODECS);
-        MediaCodecInfo[] codecInfos = codecList.getCodecInfos();
+        CodecCatalog catalog = CodecCatalog.get();
+        String text = catalog.toText();
+        log(text);
+        Log.d(TAG, text);
 
-        StringBuffer encoders = new StringBuffer("encoders {\n");
-        StringBuffer decoders = new StringBuffer("decoders {\n");
-
-        for (MediaCodecInfo info : codecInfos) {
-            String str = MediaCodecInfoHelper.toText(info, 1);
-            if (str.toLowerCase(Locale.US).contains("video")) {
-                if (info.isEncoder()) {
-                    encoders.append(str);
-                } else {
-                    decoders.append(str);
-                }
-
-            }
-
-
-        }
-        encoders.append("}\n");
-        decoders.append("}\n");
-
-        log(encoders.toString());
-        log("\n" + decoders);
-        Log.d(TAG, encoders + "\n" + decoders);
-
-        FileWriter writer = null;
-        try {
-            writer = new FileWriter(Environment.getExternalStorageDirectory().getPath() + "/codecs.txt");
-            Log.d(TAG, "Write to file");
-            writer.write(encoders.toString());
-            writer.write(decoders.toString());
-            writer.flush();
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        Log.d(TAG, "Write to file");
+        catalog.writeToFile(Environment.getExternalStorageDirectory().getPath() + "/codecs.txt");
     }
 
     public void exit() {
@@ -434,6 +405,7 @@ public class MainActivity extends AppCompatActivity {
 
                 } while (mInstancesRunning > 0);
                 Log.d(TAG, "Done with tests, instances: " + mInstancesRunning);
+                CodecPool.releaseAll();
                 try {
                     if (mUIHoldtimeSec > 0) {
                         Thread.sleep(mUIHoldtimeSec);
@@ -451,6 +423,19 @@ public class MainActivity extends AppCompatActivity {
 
 
 
+    private void writeStatistics(Statistics stats) {
+        stats.setAppVersion(getCurrentAppVersion());
+        try {
+            String fullFilename = Environment.getExternalStorageDirectory().getPath() + "/" + stats.getId() + ".json";
+            Log.d(TAG, "Write stats for " + stats.getId() + " to " + fullFilename);
+            FileWriter fw = new FileWriter(fullFilename, false);
+            stats.writeJSON(fw);
+            fw.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Traverse list of test cases below this and starts them keeping
      * track of all threads.
@@ -460,10 +445,14 @@ public class MainActivity extends AppCompatActivity {
      * @return the thread that belong to the Test test
      */
     public Thread startTest(Test test, Stack<Thread> threads) {
+        return startTest(test, threads, test.hasParallel());
+    }
+
+    private Thread startTest(Test test, Stack<Thread> threads, boolean parallel) {
         Log.d(TAG, "Start test: " + test.getCommon().getDescription());
 
         increaseTestsInflight();
-        Thread t = PerformTest(test);
+        Thread t = PerformTest(test, parallel);
 
         if (test.hasParallel()) {
             for (Test parallell : test.getParallel().getTestList()) {
@@ -474,7 +463,7 @@ public class MainActivity extends AppCompatActivity {
                     e.printStackTrace();
                 }
                 Log.d(TAG, "Start parallel");
-                threads.push(startTest(parallell, threads));
+                threads.push(startTest(parallell, threads, true));
             }
         }
 
@@ -491,9 +480,10 @@ public class MainActivity extends AppCompatActivity {
      * and if needed a surface/surfacetexture is attached
      *
      * @param test
+     * @param parallel true if other tests run at the same time
      * @return the thread belonging to Test test
      */
-    private Thread PerformTest(Test test) {
+    private Thread PerformTest(Test test, boolean parallel) {
         String filePath = test.getInput().getFilepath();
         Log.d(TAG, "Run test case, source : " + filePath);
         Log.d(TAG, "test" + test.toString());
@@ -513,7 +503,12 @@ public class MainActivity extends AppCompatActivity {
         synchronized (mEncoderList) {
             Log.d(TAG, "Source file  = " + filePath.toLowerCase(Locale.US));
             OutputAndTexture ot = null;
-            if (test.getConfigure().getSurface()) {
+            // Decode to buffers, nothing is shown
+            boolean headless = test.getConfigure().hasEncode() && !test.getConfigure().getEncode() &&
+                    test.getDecoderConfigure().getHeadless() &&
+                    (filePath.toLowerCase(Locale.US).contains(".mp4") ||
+                            filePath.toLowerCase(Locale.US).contains(".webm"));
+            if (test.getConfigure().getSurface() && !headless) {
 
                 if (mViewsToDraw.size() > 0 &&
                         test.getInput().hasShow() &&
@@ -526,7 +521,9 @@ public class MainActivity extends AppCompatActivity {
                 setupCamera(ot);
             }
 
-            if (filePath.toLowerCase(Locale.US).contains(".mp4") ||
+            if (headless) {
+                coder = new BufferDecoder();
+            } else if (filePath.toLowerCase(Locale.US).contains(".mp4") ||
                     filePath.toLowerCase(Locale.US).contains(".webm")) {
                 // A decoder is needed
                 if (ot != null) {
@@ -546,7 +543,9 @@ public class MainActivity extends AppCompatActivity {
                 OutputMultiplier mult = null;
                 if (filePath.toLowerCase(Locale.US).contains(".raw") ||
                         filePath.toLowerCase(Locale.US).contains(".yuv") ||
-                        filePath.toLowerCase(Locale.US).contains(".rgba")) {
+                        filePath.toLowerCase(Locale.US).contains(".rgba") ||
+                        Y4mFileReader.isY4m(filePath) ||
+                        SyntheticFrameReader.isSynthetic(filePath)) {
                     mult = new OutputMultiplier(Texture2dProgram.ProgramType.TEXTURE_2D);
                 } else if (filePath.toLowerCase(Locale.US).contains("camera")) {
                     mult = mCameraSourceMultiplier;
@@ -563,8 +562,11 @@ public class MainActivity extends AppCompatActivity {
 
             if (ot != null) {
                 ot.mEncoder = coder;
+                ot.mMult.setRenderWorkers(test.getInput().getRenderWorkers());
                 ot.mMult.addSurfaceTexture(ot.mView.getSurfaceTexture());
             }
+            // Spinning pacers of parallel sessions would compete for the cpu
+            coder.setPacerSpin(!parallel);
             Log.d(TAG, "Add encoder to list");
             mEncoderList.add(coder);
         }
@@ -579,15 +581,9 @@ public class MainActivity extends AppCompatActivity {
                     Log.d(TAG, "Transcoder done!");
                     Log.d(TAG, "Get stats");
                     final Statistics stats = coder.getStatistics();
-                    stats.setAppVersion(getCurrentAppVersion());
-                    try {
-                        String fullFilename = Environment.getExternalStorageDirectory().getPath() + "/" + stats.getId() + ".json";
-                        Log.d(TAG, "Write stats for " + stats.getId() + " to " + fullFilename);
-                        FileWriter fw = new FileWriter(fullFilename, false);
-                        stats.writeJSON(fw);
-                        fw.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                    writeStatistics(stats);
+                    for (Statistics output : coder.getOutputStatistics()) {
+                        writeStatistics(output);
                     }
 
                     Log.d(TAG, "One test done, instances running: " + mInstancesRunning);
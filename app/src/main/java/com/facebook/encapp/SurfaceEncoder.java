@@ -9,24 +9,23 @@ import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.os.Bundle;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicYuvToRGB;
-import android.renderscript.Type;
 import android.util.Log;
 import android.util.Size;
 
 import androidx.annotation.NonNull;
 
+import com.facebook.encapp.proto.Input;
 import com.facebook.encapp.proto.Test;
-import com.facebook.encapp.utils.FileReader;
+import com.facebook.encapp.utils.BitmapBuffer;
+import com.facebook.encapp.utils.CodecPool;
 import com.facebook.encapp.utils.FpsMeasure;
 import com.facebook.encapp.utils.FrameswapControl;
 import com.facebook.encapp.utils.OutputMultiplier;
+import com.facebook.encapp.utils.RuntimeSchedule;
 import com.facebook.encapp.utils.SizeUtils;
 import com.facebook.encapp.utils.Statistics;
 import com.facebook.encapp.utils.TestDefinitionHelper;
+import com.facebook.encapp.utils.YuvBuffer;
 import com.facebook.encapp.utils.grafika.Texture2dProgram;
 
 import java.io.IOException;
@@ -40,7 +39,6 @@ import java.util.Locale;
 
 class SurfaceEncoder extends Encoder {
     protected static final String TAG = "encapp.encoder";
-    Bitmap mBitmap = null;
     Context mContext;
     SurfaceTexture mSurfaceTexture;
     boolean mIsRgbaSource = false;
@@ -48,10 +46,16 @@ class SurfaceEncoder extends Encoder {
     boolean mUseCameraTimestamp = true;
     OutputMultiplier mOutputMult;
     Bundle mKeyFrameBundle;
-    private Allocation mYuvIn;
-    private Allocation mYuvOut;
-    private ScriptIntrinsicYuvToRGB yuvToRgbIntrinsic;
+    // Raw yuv input is uploaded as textures and converted to rgb by the renderer
+    private YuvBuffer mYuvFrame;
+    private boolean mYuvInterleaved = false;
+    private int mWidth;
+    private int mHeight;
     private FrameswapControl mFrameSwapSurface;
+    // Camera frames decided by the renderer, written by cameraFrame() only
+    private volatile int mCameraFrames = 0;
+    private volatile int mCameraAdded = 0;
+    private volatile int mCameraSkipped = 0;
 
     public SurfaceEncoder(Context context, OutputMultiplier multiplier) {
         mOutputMult = multiplier;
@@ -76,16 +80,22 @@ class SurfaceEncoder extends Encoder {
         mTest = test;
         Log.d(TAG, "** Surface input encoding - " + mTest.getCommon().getDescription() + " **");
         mTest = TestDefinitionHelper.checkAnUpdateBasicSettings(mTest);
-        if (mTest.hasRuntime())
+        if (mTest.hasRuntime()) {
             mRuntimeParams = mTest.getRuntime();
+            mRuntimeSchedule = new RuntimeSchedule(mRuntimeParams);
+        }
 
         mFrameRate = mTest.getConfigure().getFramerate();
         mWriteFile = !mTest.getConfigure().hasEncode() || mTest.getConfigure().getEncode();
         mStats = new Statistics("raw encoder", mTest);
+        mStats.setWriterQueue(mDataWriter.getQueue());
+        mStats.setFramePacer(mPacer);
 
         Size res = SizeUtils.parseXString(mTest.getInput().getResolution());
         int width = res.getWidth();
         int height = res.getHeight();
+        mWidth = width;
+        mHeight = height;
         mRefFramesizeInBytes = (int) (width * height * 1.5);
         mRefFrameTime = calculateFrameTimingUsec(mReferenceFrameRate);
 
@@ -109,19 +119,11 @@ class SurfaceEncoder extends Encoder {
         checkRealtime();
 
         if (!mIsRgbaSource && !mIsCameraSource) {
-            RenderScript rs = RenderScript.create(mContext);
-            yuvToRgbIntrinsic = ScriptIntrinsicYuvToRGB.create(rs, Element.U8_4(rs));
-
-            Type.Builder yuvType = new Type.Builder(rs, Element.U8(rs)).setX(mRefFramesizeInBytes);
-            mYuvIn = Allocation.createTyped(rs, yuvType.create(), Allocation.USAGE_SCRIPT);
-            Type.Builder rgbaType = new Type.Builder(rs, Element.RGBA_8888(rs)).setX(width).setY(height);
-            mYuvOut = Allocation.createTyped(rs, rgbaType.create(), Allocation.USAGE_SCRIPT);
+            mYuvInterleaved = mTest.getInput().getPixFmt() == Input.PixFmt.nv12;
         }
 
         if (!mIsCameraSource) {
-            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-
-            mYuvReader = new FileReader();
+            mYuvReader = createFileReader(mTest);
             if (!mYuvReader.openFile(mTest.getInput().getFilepath())) {
                 return "\nCould not open file";
             }
@@ -140,7 +142,7 @@ class SurfaceEncoder extends Encoder {
                 mTest = setCodecNameAndIdentifier(mTest);
             }
             Log.d(TAG, "Create codec by name: " + mTest.getConfigure().getCodec());
-            mCodec = MediaCodec.createByCodecName(mTest.getConfigure().getCodec());
+            mCodec = acquireCodec(mTest.getConfigure().getCodec(), CodecPool.MODE_SURFACE);
 
             format = TestDefinitionHelper.buildMediaFormat(mTest);
             format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
@@ -157,7 +159,19 @@ class SurfaceEncoder extends Encoder {
                     null /* crypto */,
                     MediaCodec.CONFIGURE_FLAG_ENCODE);
             checkMediaFormat(mCodec.getInputFormat());
+            mOutputMult.setRenderWorkers(mTest.getInput().getRenderWorkers());
             mFrameSwapSurface = mOutputMult.addSurface(mCodec.createInputSurface());
+            mStats.setRenderOutput(mFrameSwapSurface);
+            if (mIsCameraSource) {
+                // The renderer skips the camera frames above the encoding frame rate
+                mFrameSwapSurface.setKeepInterval(mKeepInterval);
+                mFrameSwapSurface.setFrameListener(new FrameswapControl.FrameListener() {
+                    @Override
+                    public void onFrame(long timestampUsec, int frame, boolean kept) {
+                        cameraFrame(timestampUsec, kept);
+                    }
+                });
+            }
             setupOutputMult(width, height);
 
             mStats.setEncoderMediaFormat(mCodec.getInputFormat());
@@ -178,6 +192,7 @@ class SurfaceEncoder extends Encoder {
         try {
             Log.d(TAG, "Start encoder");
             mCodec.start();
+            codecSetupDone();
         } catch (Exception ex) {
             Log.e(TAG, "Start failed: " + ex.getMessage());
             return "Start encoding failed";
@@ -200,7 +215,8 @@ class SurfaceEncoder extends Encoder {
         mFpsMeasure.start();
         mFrameTimeUsec = calculateFrameTimingUsec(mFrameRate);
         int current_loop = 1;
-        ByteBuffer buffer = ByteBuffer.allocate(mRefFramesizeInBytes);
+        // Yuv frames are read into buffers from the renderer, rgba is copied into a pooled bitmap
+        ByteBuffer buffer = (mIsRgbaSource) ? ByteBuffer.allocate(mRefFramesizeInBytes) : null;
         boolean done = false;
         synchronized (this) {
             Log.d(TAG, "Wait for synchronized start");
@@ -252,27 +268,12 @@ class SurfaceEncoder extends Encoder {
                                 bundle.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
                                 mCodec.setParameters(bundle);
                             }
+                            // Frames are counted by cameraFrame() as the renderer decides them
+                            updateCameraCounters();
                             setRuntimeParameters(mInFramesCount);
-                            mDropNext = dropFrame(mInFramesCount);
-                            mDropNext |= dropFromDynamicFramerate(mInFramesCount);
                             updateDynamicFramerate(mInFramesCount);
-                            if (mDropNext) {
-                                mFrameSwapSurface.dropNext(true);
-                                mSkipped++;
-                                mDropNext = false;
-                            } else {
-                                mFrameSwapSurface.dropNext(false);
-                                long ptsUsec = 0;
-                                if (mUseCameraTimestamp) {
-                                    // Use the camera provided timestamp
-                                    ptsUsec = mPts + (long) (timestampUsec - mFirstFrameTimestampUsec);
-                                } else {
-                                    ptsUsec = computePresentationTimeUsec(mInFramesCount, mRefFrameTime);
-                                }
-                                mStats.startEncodingFrame(ptsUsec, mInFramesCount);
-                                mFramesAdded++;
-                            }
-                            mInFramesCount++;
+                            mFrameSwapSurface.setKeepInterval(mKeepInterval);
+                            mFrameSwapSurface.dropNext(dropFrame(mInFramesCount));
                         }
                     } catch (Exception ex) {
                         //TODO: make a real fix for when a camera encoder quits before another
@@ -333,8 +334,13 @@ class SurfaceEncoder extends Encoder {
 
         }
         Log.d(TAG, "Close muxer and streams, " + mTest.getCommon().getDescription());
+        if (mIsCameraSource) {
+            updateCameraCounters();
+        }
         mStats.stop();
         mCodec.flush();
+        Log.d(TAG, "Stop writer");
+        stopDataWriter();
 
         if (mMuxer != null) {
             try {
@@ -345,6 +351,10 @@ class SurfaceEncoder extends Encoder {
             }
             mMuxer = null;
         }
+        // Stop drawing into the input surface before the codec is reset
+        if (mFrameSwapSurface != null) {
+            mOutputMult.removeFrameSwapControl(mFrameSwapSurface);
+        }
         if (mCodec != null) {
             mCodec.flush();
             synchronized (this) {
@@ -354,12 +364,7 @@ class SurfaceEncoder extends Encoder {
                     e.printStackTrace();
                 }
             }
-            mCodec.stop();
-            mCodec.release();
-        }
-
-        if (mFrameSwapSurface != null) {
-            mOutputMult.removeFrameSwapControl(mFrameSwapSurface);
+            recycleCodec();
         }
 
         if (mYuvReader != null)
@@ -370,12 +375,45 @@ class SurfaceEncoder extends Encoder {
             mSurfaceTexture.releaseTexImage();
             mSurfaceTexture.release();
         }
-        Log.d(TAG, "Stop writer");
-        mDataWriter.stopWriter();
         mOutputMult.stopAndRelease();
         return "";
     }
 
+    /**
+     * Renderer thread, called for every camera frame before it is drawn to the encoder.
+     * Only the camera counters are written here, see updateCameraCounters().
+     */
+    private void cameraFrame(long timestampUsec, boolean kept) {
+        if (mFirstFrameTimestampUsec < 0) {
+            // Not stable yet
+            return;
+        }
+        int frame = mCameraFrames;
+        if (!kept) {
+            mCameraSkipped++;
+        } else {
+            long ptsUsec = 0;
+            if (mUseCameraTimestamp) {
+                // Use the camera provided timestamp
+                ptsUsec = mPts + (long) (timestampUsec - mFirstFrameTimestampUsec);
+            } else {
+                ptsUsec = computePresentationTimeUsec(frame, mRefFrameTime);
+            }
+            mStats.startEncodingFrame(ptsUsec, frame);
+            mCameraAdded++;
+        }
+        mCameraFrames = frame + 1;
+    }
+
+    /**
+     * Encoder thread, takes the counts of the frames decided by the renderer.
+     */
+    private void updateCameraCounters() {
+        mInFramesCount = mCameraFrames;
+        mFramesAdded = mCameraAdded;
+        mSkipped = mCameraSkipped;
+    }
+
     protected void checkRealtime() {
         if (mTest.getInput().hasRealtime()) {
             if ( mTest.getInput().getRealtime()) {
@@ -409,8 +447,18 @@ class SurfaceEncoder extends Encoder {
      */
     private int queueInputBufferEncoder(
             MediaCodec codec, ByteBuffer buffer, int frameCount, int flags, int size) {
-        buffer.clear();
-        int read = mYuvReader.fillBuffer(buffer, size);
+        int read;
+        if (mIsRgbaSource) {
+            buffer.clear();
+            read = mYuvReader.fillBuffer(buffer, size);
+        } else {
+            // Kept until it is passed on, a dropped frame leaves it for the next one
+            if (mYuvFrame == null) {
+                mYuvFrame = mOutputMult.obtainYuvBuffer(mWidth, mHeight, mYuvInterleaved);
+            }
+            mYuvFrame.mData.clear();
+            read = mYuvReader.fillBuffer(mYuvFrame.mData, size);
+        }
         long ptsUsec = computePresentationTimeUsec(mInFramesCount, mRefFrameTime);
         setRuntimeParameters(mInFramesCount);
         mDropNext = dropFrame(mInFramesCount);
@@ -422,20 +470,17 @@ class SurfaceEncoder extends Encoder {
             read = -2;
         } else if (read == size) {
             mFramesAdded++;
-            if (!mIsRgbaSource) {
-                mYuvIn.copyFrom(buffer.array());
-                yuvToRgbIntrinsic.setInput(mYuvIn);
-                yuvToRgbIntrinsic.forEach(mYuvOut);
-
-                mYuvOut.copyTo(mBitmap);
-            } else {
-                mBitmap.copyPixelsFromBuffer(buffer);
-            }
-
             if (mFirstFrameTimestampUsec == -1) {
                 mFirstFrameTimestampUsec = ptsUsec;
             }
-            mOutputMult.newBitmapAvailable(mBitmap, ptsUsec);
+            if (!mIsRgbaSource) {
+                mOutputMult.newYuvBufferAvailable(mYuvFrame, ptsUsec);
+                mYuvFrame = null;
+            } else {
+                BitmapBuffer bitmap = mOutputMult.obtainBitmapBuffer(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+                bitmap.mBitmap.copyPixelsFromBuffer(buffer);
+                mOutputMult.newBitmapBufferAvailable(bitmap, ptsUsec);
+            }
             mStats.startEncodingFrame(ptsUsec, frameCount);
         } else {
             Log.d(TAG, "***************** FAILED READING SURFACE ENCODER ******************");
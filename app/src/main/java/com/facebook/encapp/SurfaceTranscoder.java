@@ -17,26 +17,36 @@ import com.facebook.encapp.proto.Configure;
 import com.facebook.encapp.proto.DataValueType;
 import com.facebook.encapp.proto.DecoderConfigure;
 import com.facebook.encapp.proto.DecoderRuntime;
+import com.facebook.encapp.proto.Ladder;
 import com.facebook.encapp.proto.Test;
+import com.facebook.encapp.utils.CodecPool;
 import com.facebook.encapp.utils.FileReader;
 import com.facebook.encapp.utils.FrameswapControl;
 import com.facebook.encapp.utils.OutputMultiplier;
+import com.facebook.encapp.utils.RuntimeSchedule;
+import com.facebook.encapp.utils.SampleCache;
 import com.facebook.encapp.utils.SizeUtils;
+import com.facebook.encapp.utils.SpscIntQueue;
 import com.facebook.encapp.utils.Statistics;
 import com.facebook.encapp.utils.TestDefinitionHelper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class SurfaceTranscoder extends SurfaceEncoder {
     private final String TAG = "encapp.surfacetranscoder";
+    // More than the input buffers of any decoder
+    private static final int INPUT_QUEUE_SIZE = 64;
     private final SourceReader mSourceReader;
     MediaExtractor mExtractor;
+    // The demuxed clip if the input is cached, replaces the extractor when feeding
+    SampleCache mSampleCache;
     MediaCodec mDecoder;
     DecoderRuntime mDecoderRuntimeParams;
+    RuntimeSchedule mDecoderRuntimeSchedule;
     OutputMultiplier mOutputMult = null;
     double mLoopTime = 0;
     int mCurrent_loop = 1;
@@ -44,6 +54,8 @@ public class SurfaceTranscoder extends SurfaceEncoder {
     long mLast_pts = 0;
     boolean mNoEncoding = false;
     private FrameswapControl mFrameSwapSurface;
+    // Extra encoders of a ladder transcode
+    private final ArrayList<LadderRung> mRungs = new ArrayList<>();
 
     public SurfaceTranscoder(OutputMultiplier multiplier) {
         mOutputMult = multiplier;
@@ -70,10 +82,14 @@ public class SurfaceTranscoder extends SurfaceEncoder {
             Log.d(TAG, "**** Surface Transcode - " + mTest.getCommon().getDescription() + " ***");
         }
 
-        if (mTest.hasRuntime())
+        if (mTest.hasRuntime()) {
             mRuntimeParams = mTest.getRuntime();
-        if (mTest.hasDecoderRuntime())
+            mRuntimeSchedule = new RuntimeSchedule(mRuntimeParams);
+        }
+        if (mTest.hasDecoderRuntime()) {
             mDecoderRuntimeParams = mTest.getDecoderRuntime();
+            mDecoderRuntimeSchedule = new RuntimeSchedule(mDecoderRuntimeParams);
+        }
 
         checkRealtime();
 
@@ -107,6 +123,10 @@ public class SurfaceTranscoder extends SurfaceEncoder {
             }
             Log.d(TAG, "Check parsed input format:");
             checkMediaFormat(inputFormat);
+            if (mTest.getInput().getFrameCacheMb() > 0) {
+                Log.d(TAG, "Cache the compressed input, budget: " + mTest.getInput().getFrameCacheMb() + " MB");
+                mSampleCache = SampleCache.load(mExtractor, mTest.getInput().getFrameCacheMb() * 1024L * 1024L);
+            }
             // Allow explicit decoder only for non encoding tests (!?)
          /*   if (noEncoding) {
                 //TODO: throw error on failed lookup
@@ -127,6 +147,8 @@ public class SurfaceTranscoder extends SurfaceEncoder {
         mTest = TestDefinitionHelper.updateInputSettings(mTest, inputFormat);
         mTest = TestDefinitionHelper.checkAnUpdateBasicSettings(mTest);
         mStats = new Statistics("surface encoder", mTest);
+        mStats.setWriterQueue(mDataWriter.getQueue());
+        mStats.setFramePacer(mPacer);
 
         Size res = SizeUtils.parseXString(mTest.getInput().getResolution());
         int width = res.getWidth();
@@ -162,7 +184,7 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                     mTest = setCodecNameAndIdentifier(mTest);
                 }
                 Log.d(TAG, "Create encoder by name: " + mTest.getConfigure().getCodec());
-                mCodec = MediaCodec.createByCodecName(mTest.getConfigure().getCodec());
+                mCodec = acquireCodec(mTest.getConfigure().getCodec(), CodecPool.MODE_SURFACE);
             } else {
                 mStats.setCodec(Statistics.NA);
             }
@@ -192,7 +214,31 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                         MediaCodec.CONFIGURE_FLAG_ENCODE);
                 Log.d(TAG, "Check input format after encoder is configured");
                 checkMediaFormat(mCodec.getInputFormat());
+                mOutputMult.setRenderWorkers(mTest.getInput().getRenderWorkers());
                 mFrameSwapSurface = mOutputMult.addSurface(mCodec.createInputSurface());
+                mStats.setRenderOutput(mFrameSwapSurface);
+                // The renderer decimates to the encoding frame rate
+                mFrameSwapSurface.setFramerate(mReferenceFrameRate, mFrameRate);
+                mFrameSwapSurface.setFrameListener(new FrameswapControl.FrameListener() {
+                    @Override
+                    public void onFrame(long timestampUsec, int frame, boolean kept) {
+                        renderDecision(timestampUsec, frame, kept);
+                    }
+                });
+                // Runtime drops only apply to the main encoder, the rungs still get the frame
+                mFrameSwapSurface.setFrameFilter(new FrameswapControl.FrameFilter() {
+                    @Override
+                    public boolean drop(int frame) {
+                        return dropFrame(frame);
+                    }
+                });
+
+                String status = startLadder();
+                if (status.length() > 0) {
+                    return status;
+                }
+            } else if (mTest.getLadder().getRungCount() > 0) {
+                Log.w(TAG, "No encoding, ladder rungs are ignored");
             }
 
             Log.d(TAG, "Check input format before config decoder");
@@ -240,6 +286,7 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                 try {
                     Log.d(TAG, "Start encoder");
                     mCodec.start();
+                    codecSetupDone();
                 } catch (Exception ex) {
                     Log.e(TAG, "Start failed: " + ex.getMessage());
                     return "Start encoding failed";
@@ -266,12 +313,20 @@ public class SurfaceTranscoder extends SurfaceEncoder {
         }
         mSourceReader.start();
         mStats.start();
+        for (LadderRung rung : mRungs) {
+            rung.startStats();
+        }
         try {
             mSourceReader.join();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
         mStats.stop();
+        for (LadderRung rung : mRungs) {
+            rung.stop();
+        }
+        Log.d(TAG, "Stop writer");
+        stopDataWriter();
         Log.d(TAG, "Close muxer and streams");
         if (mMuxer != null) {
             try {
@@ -287,6 +342,10 @@ public class SurfaceTranscoder extends SurfaceEncoder {
             mOutputMult.stopAndRelease();
         }
 
+        // Stop drawing into the input surface before the codec is reset
+        if (mFrameSwapSurface != null && mOutputMult != null) {
+            mOutputMult.removeFrameSwapControl(mFrameSwapSurface);
+        }
         try {
             if (mCodec != null) {
                 mCodec.flush();
@@ -298,9 +357,9 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                         e.printStackTrace();
                     }
                 }
-                mCodec.stop();
-                mCodec.release();
+                recycleCodec();
             }
+            releaseLadder();
             if (mDecoder != null) {
                 mDecoder.flush();
                 // Give it some time
@@ -318,10 +377,6 @@ public class SurfaceTranscoder extends SurfaceEncoder {
             Log.e(TAG, "Failed to shut down:" + iex.getLocalizedMessage());
         }
 
-        if (mFrameSwapSurface != null && mOutputMult != null) {
-            mOutputMult.removeFrameSwapControl(mFrameSwapSurface);
-        }
-
         if (surfaceTexture != null) {
             surfaceTexture.release();
         }
@@ -331,12 +386,48 @@ public class SurfaceTranscoder extends SurfaceEncoder {
 
         if (mExtractor != null)
             mExtractor.release();
-        Log.d(TAG, "Stop writer");
-        mDataWriter.stopWriter();
         return "";
     }
 
 
+    /**
+     * Starts an encoder for every rung of the ladder, each one is an output of the multiplier.
+     *
+     * @return empty string or the failure.
+     */
+    private String startLadder() {
+        List<Ladder.Rung> rungs = mTest.getLadder().getRungList();
+        for (int i = 0; i < rungs.size(); i++) {
+            LadderRung rung = new LadderRung(mOutputMult, mReferenceFrameRate);
+            String status = rung.start(TestDefinitionHelper.getLadderRungTest(mTest, rungs.get(i), i + 1));
+            if (status.length() > 0) {
+                rung.release();
+                releaseLadder();
+                return status;
+            }
+            mRungs.add(rung);
+        }
+        if (mRungs.size() > 0) {
+            Log.d(TAG, "Ladder transcode with " + (mRungs.size() + 1) + " outputs");
+        }
+        return "";
+    }
+
+    private void releaseLadder() {
+        for (LadderRung rung : mRungs) {
+            rung.release();
+        }
+    }
+
+    @Override
+    public List<Statistics> getOutputStatistics() {
+        List<Statistics> stats = new ArrayList<>();
+        for (LadderRung rung : mRungs) {
+            stats.add(rung.getStatistics());
+        }
+        return stats;
+    }
+
     public void setDecoderConfigureParams(Test test, MediaFormat format) {
         DecoderConfigure config = test.getDecoderConfigure();
 
@@ -355,35 +446,9 @@ public class SurfaceTranscoder extends SurfaceEncoder {
     }
 
     public void setDecoderRuntimeParameters(Test test, int frame) {
-        // go through all runtime settings and see which are due
-        if (mDecoderRuntimeParams == null) return;
-        Bundle bundle = new Bundle();
-
-        for (DecoderRuntime.Parameter param : mDecoderRuntimeParams.getParameterList()) {
-            if (param.getFramenum() == frame) {
-                switch (param.getType().getNumber()) {
-                    case DataValueType.floatType_VALUE:
-                        float fval = Float.parseFloat(param.getValue());
-                        bundle.putFloat(param.getKey(), fval);
-                        break;
-                    case DataValueType.intType_VALUE:
-                        int ival = TestDefinitionHelper.magnitudeToInt(param.getValue());
-                        bundle.putInt(param.getKey(), ival);
-                        break;
-                    case DataValueType.longType_VALUE:
-                        long lval = Long.parseLong(param.getValue());
-                        bundle.putLong(param.getKey(), lval);
-                        break;
-                    case DataValueType.stringType_VALUE:
-                        bundle.putString(param.getKey(), param.getValue());
-                        break;
-                    default:
-                        ///Should not be here
-                }
-            }
-        }
-
-        if (bundle.keySet().size() > 0 && mDecoder != null) {
+        if (mDecoderRuntimeSchedule == null) return;
+        Bundle bundle = mDecoderRuntimeSchedule.getParameters(frame);
+        if (bundle != null && mDecoder != null) {
             mDecoder.setParameters(bundle);
         }
     }
@@ -421,22 +486,16 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                         if (mCodec != null) {
                             mCodec.setParameters(bundle);
                         }
+                        for (LadderRung rung : mRungs) {
+                            rung.firstFrame(timestamp);
+                        }
                     }
                     setRuntimeParameters(mInFramesCount);
-
-                    mDropNext = dropFrame(mInFramesCount);
-                    mDropNext |= dropFromDynamicFramerate(mInFramesCount);
                     updateDynamicFramerate(mInFramesCount);
-                    if (mDropNext) {
-                        mSkipped++;
-                        mDropNext = false;
-                        codec.releaseOutputBuffer(index, false);
-                    } else {
-                        long ptsUsec = mPts + (timestamp - (long) mFirstFrameTimestampUsec);
-                        mStats.startEncodingFrame(ptsUsec, mInFramesCount);
-                        mFramesAdded++;
-                        mOutputMult.newFrameAvailableInBuffer(codec, index, info);
-                    }
+                    // Drops and frame rate decimation are done per output by the renderer, the
+                    // frames drawn are counted in renderDecision()
+                    mFrameSwapSurface.setKeepInterval(mKeepInterval);
+                    mOutputMult.newFrameAvailableInBuffer(codec, index, info, mInFramesCount);
                 } else {
                     mCurrentTimeSec = timestamp/1000000.0;
                     mOutputMult.newFrameAvailableInBuffer(codec, index, info);
@@ -453,14 +512,24 @@ public class SurfaceTranscoder extends SurfaceEncoder {
     }
 
     private class SourceReader extends Thread {
-        ConcurrentLinkedQueue<Integer> mDecoderBuffers = new ConcurrentLinkedQueue<>();
+        // Input buffer indices from the decoder callback thread
+        final SpscIntQueue mDecoderBuffers = new SpscIntQueue(INPUT_QUEUE_SIZE);
         boolean mDone = false;
+        // Time waiting for input buffers (or realtime pacing) and time filling them
+        long mIdleNs = 0;
+        long mBusyNs = 0;
+        // Next sample of the cache
+        int mSample = 0;
+        // Reused for every sample
+        final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
 
         @Override
         public void run() {
             Log.d(TAG, "Start Source reader.");
+            long busyStart = System.nanoTime();
             while (!mDone) {
-                while (mDecoderBuffers.size() > 0 && !mDone) {
+                int index;
+                while (!mDone && (index = mDecoderBuffers.poll()) != SpscIntQueue.EMPTY) {
                     if (mInFramesCount % 100 == 0) {
                         if (mNoEncoding) {
                             Log.d(TAG, "Decoder, Frames: " + mFramesAdded + " - inframes: " + mInFramesCount +
@@ -471,11 +540,21 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                         }
                     }
 
-                    Integer index = mDecoderBuffers.poll();
-                    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+                    MediaCodec.BufferInfo info = mInfo;
+                    info.set(0, 0, 0, 0);
                     ByteBuffer buffer = mDecoder.getInputBuffer(index);
-                    int size = mExtractor.readSampleData(buffer, 0);
-                    int flags = mExtractor.getSampleFlags();
+                    int size;
+                    int flags;
+                    long sampleTime;
+                    if (mSampleCache != null) {
+                        size = mSampleCache.readSampleData(mSample, buffer);
+                        flags = mSampleCache.getSampleFlags(mSample);
+                        sampleTime = mSampleCache.getSampleTime(mSample);
+                    } else {
+                        size = mExtractor.readSampleData(buffer, 0);
+                        flags = mExtractor.getSampleFlags();
+                        sampleTime = mExtractor.getSampleTime();
+                    }
 
                     double runtime = mCurrentTimeSec;
                     if (mFirstFrameTimestampUsec > 0) {
@@ -496,9 +575,14 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                     }
 
                     setDecoderRuntimeParameters(mTest, mInFramesCount);
-                    long pts = mExtractor.getSampleTime() + mPts_offset;
+                    long pts = sampleTime + mPts_offset;
                     if (mRealtime) {
+                        long pacingStart = System.nanoTime();
                         sleepUntilNextFrame();
+                        // Waiting, not feeding
+                        long pacing = System.nanoTime() - pacingStart;
+                        mIdleNs += pacing;
+                        mBusyNs -= pacing;
                     }
                     mStats.startDecodingFrame(pts, size, flags);
                     if (size > 0) {
@@ -507,9 +591,21 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                     if (mFirstFrameTimestampUsec > 0) {
                         runtime -= mFirstFrameTimestampUsec/1000000.0;
                     }
-                    boolean eof = !mExtractor.advance();
+                    boolean eof;
+                    if (mSampleCache != null) {
+                        // Looping only moves the timestamps
+                        mSample++;
+                        eof = mSample >= mSampleCache.getSampleCount();
+                        if (eof) {
+                            mSample = 0;
+                        }
+                    } else {
+                        eof = !mExtractor.advance();
+                        if (eof) {
+                            mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                        }
+                    }
                     if (eof) {
-                        mExtractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
                         mCurrent_loop++;
                         if (pts > mLast_pts) {
                             mPts_offset = pts;
@@ -527,23 +623,21 @@ public class SurfaceTranscoder extends SurfaceEncoder {
                     mLast_pts = pts;
                 }
 
-                synchronized (mDecoderBuffers) {
-                    if (mDecoderBuffers.size() == 0 && !mDone) {
-                        try {
-                            mDecoderBuffers.wait(WAIT_TIME_SHORT_MS);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                if (!mDone) {
+                    long idleStart = System.nanoTime();
+                    mBusyNs += idleStart - busyStart;
+                    mDecoderBuffers.await(WAIT_TIME_SHORT_MS * 1000000L);
+                    busyStart = System.nanoTime();
+                    mIdleNs += busyStart - idleStart;
                 }
             }
+            mBusyNs += System.nanoTime() - busyStart;
+            mStats.setDecoderFeeder(mIdleNs, mBusyNs, mDecoderBuffers.getMaxDepth());
+            Log.d(TAG, "Source reader done, idle: " + mIdleNs / 1000000 + " ms, busy: " + mBusyNs / 1000000 + " ms");
         }
 
         public void addBuffer(int id) {
-            mDecoderBuffers.add(id);
-            synchronized (mDecoderBuffers) {
-                mDecoderBuffers.notifyAll();
-            }
+            mDecoderBuffers.put(id);
         }
     }
 }
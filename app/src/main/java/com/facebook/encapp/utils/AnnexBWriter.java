@@ -0,0 +1,53 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes an h264/hevc Annex-B elementary stream, the codec config (csd-0/csd-1) goes first.
+ *
+ * MediaCodec already produces start code delimited NAL units so samples are written as is.
+ */
+public class AnnexBWriter extends StreamFileWriter {
+    private ByteBuffer[] mCodecConfig = new ByteBuffer[0];
+    private boolean mStarted = false;
+
+    public AnnexBWriter(String path) throws IOException {
+        super(path);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        if (format.containsKey("csd-0")) {
+            ByteBuffer csd1 = format.containsKey("csd-1") ? format.getByteBuffer("csd-1") : null;
+            mCodecConfig = (csd1 != null) ?
+                    new ByteBuffer[]{format.getByteBuffer("csd-0"), csd1} :
+                    new ByteBuffer[]{format.getByteBuffer("csd-0")};
+        }
+        return 0;
+    }
+
+    @Override
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        for (ByteBuffer csd : mCodecConfig) {
+            put(csd, 0, csd.limit());
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // Already written from the format
+            return;
+        }
+        start();
+        put(data, info.offset, info.size);
+    }
+}
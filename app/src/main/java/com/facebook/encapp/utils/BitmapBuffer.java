@@ -1,17 +1,84 @@
 package com.facebook.encapp.utils;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
 
 public class BitmapBuffer implements BufferObject{
+    // Replaces the pixels, including alpha
+    private static final Paint COPY_PAINT = new Paint();
+
+    static {
+        COPY_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
     public Bitmap mBitmap;
     public long mTimestampUs;
+    private Canvas mCanvas;
 
     public BitmapBuffer(Bitmap bitmap, long timestampUs) {
         mBitmap = bitmap;
         mTimestampUs = timestampUs;
     }
+
+    public BitmapBuffer(int width, int height, Bitmap.Config config) {
+        mBitmap = Bitmap.createBitmap(width, height, config);
+        mTimestampUs = 0;
+    }
+
+    public boolean matches(int width, int height, Bitmap.Config config) {
+        return mBitmap.getWidth() == width && mBitmap.getHeight() == height &&
+                mBitmap.getConfig() == config;
+    }
+
+    /**
+     * Draws the source into this bitmap, sizes and configs must match.
+     */
+    public void copyFrom(Bitmap source) {
+        if (mCanvas == null) {
+            mCanvas = new Canvas(mBitmap);
+        }
+        mCanvas.drawBitmap(source, 0, 0, COPY_PAINT);
+    }
+
     @Override
     public long getTimestampUs() {
         return mTimestampUs;
     }
+
+    /**
+     * Reusable request for a pooled bitmap, only to be used by the producing thread.
+     */
+    public static class Factory implements FramePool.Factory<BitmapBuffer> {
+        private int mWidth;
+        private int mHeight;
+        private Bitmap.Config mConfig;
+
+        public Factory set(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+            return this;
+        }
+
+        @Override
+        public BitmapBuffer create() {
+            return new BitmapBuffer(mWidth, mHeight, mConfig);
+        }
+
+        @Override
+        public boolean matches(BitmapBuffer buffer) {
+            return buffer.matches(mWidth, mHeight, mConfig);
+        }
+    }
+
+    public static final FramePool.Releaser<BitmapBuffer> RELEASER =
+            new FramePool.Releaser<BitmapBuffer>() {
+                @Override
+                public void release(BitmapBuffer buffer) {
+                    buffer.mBitmap.recycle();
+                }
+            };
 }
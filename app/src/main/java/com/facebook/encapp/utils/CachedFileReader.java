@@ -0,0 +1,135 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the raw input in memory after the first pass.
+ *
+ * While the first loop is played out the frames are read by the wrapped reader into an
+ * off-heap cache sized by the file. Once the whole clip has been read, re-opening the same
+ * file is served from the cache without any file i/o. Clips larger than the budget are
+ * streamed by the wrapped reader as usual.
+ */
+public class CachedFileReader extends FileReader {
+    private static final String TAG = "encapp.cachedreader";
+
+    final FileReader mSource;
+    final long mBudgetBytes;
+    String mName;
+    ByteBuffer mCache;
+    ByteBuffer mCacheFill;
+    ByteBuffer mCacheRead;
+    int mCachedBytes = 0;
+    int mReadPosition = 0;
+    boolean mCacheComplete = false;
+    boolean mCaching = false;
+    boolean mEndSeen = false;
+    boolean mOpen = false;
+
+    public CachedFileReader(FileReader source, long budgetBytes) {
+        mSource = source;
+        mBudgetBytes = Math.min(budgetBytes, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean openFile(String name) {
+        synchronized (this) {
+            if (mCacheComplete && name.equals(mName)) {
+                Log.d(TAG, "Serve " + name + " from cache");
+                mReadPosition = 0;
+                mOpen = true;
+                return true;
+            }
+
+            mName = name;
+            mCacheComplete = false;
+            mCaching = false;
+            mEndSeen = false;
+            mCachedBytes = 0;
+            mReadPosition = 0;
+            long length = new File(name).length();
+            if (length > 0 && length <= mBudgetBytes) {
+                if (mCache == null || mCache.capacity() < length) {
+                    try {
+                        mCache = ByteBuffer.allocateDirect((int) length);
+                    } catch (OutOfMemoryError e) {
+                        Log.e(TAG, "Failed to allocate frame cache: " + e.getMessage());
+                        mCache = null;
+                    }
+                }
+                if (mCache != null) {
+                    mCache.clear();
+                    mCache.limit((int) length);
+                    mCacheFill = mCache.duplicate();
+                    mCacheRead = mCache.duplicate();
+                    mCaching = true;
+                }
+            } else {
+                Log.d(TAG, "File size " + length + " exceeds cache budget " + mBudgetBytes + ", stream input");
+                mCache = null;
+            }
+            mOpen = mSource.openFile(name);
+            return mOpen;
+        }
+    }
+
+    @Override
+    public void closeFile() {
+        synchronized (this) {
+            if (mCaching) {
+                mCacheComplete = mEndSeen || mCachedBytes == mCache.limit();
+                mCaching = false;
+                Log.d(TAG, "Cached " + mCachedBytes + " bytes, complete: " + mCacheComplete);
+                mSource.closeFile();
+            } else if (!mCacheComplete) {
+                mSource.closeFile();
+            }
+            mOpen = false;
+        }
+    }
+
+    @Override
+    public int fillBuffer(ByteBuffer buffer, int size) {
+        synchronized (this) {
+            if (!mOpen) return 0;
+            if (mCacheComplete) {
+                return copyFromCache(buffer, size);
+            }
+            if (!mCaching) {
+                return mSource.fillBuffer(buffer, size);
+            }
+            int len = Math.min(size, mCache.limit() - mCachedBytes);
+            if (len <= 0) {
+                mEndSeen = true;
+                return -1;
+            }
+            mCacheFill.limit(mCachedBytes + len);
+            mCacheFill.position(mCachedBytes);
+            int read = mSource.fillBuffer(mCacheFill, len);
+            if (read < 0) {
+                mEndSeen = true;
+            }
+            if (read <= 0) {
+                return read;
+            }
+            mCachedBytes += read;
+            return copyFromCache(buffer, read);
+        }
+    }
+
+    private int copyFromCache(ByteBuffer buffer, int size) {
+        int available = mCachedBytes - mReadPosition;
+        if (available <= 0) {
+            return -1;
+        }
+        int len = Math.min(Math.min(size, available), buffer.remaining());
+        mCacheRead.limit(mReadPosition + len);
+        mCacheRead.position(mReadPosition);
+        buffer.put(mCacheRead);
+        mReadPosition += len;
+        return len;
+    }
+}
@@ -0,0 +1,176 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.util.Log;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process wide list of the video codecs, built once.
+ *
+ * Names and mime types are indexed lower case so codec resolution is a map lookup, the
+ * result of a partial name lookup is remembered. The text listing (codecs.txt) is also
+ * only built once.
+ */
+public class CodecCatalog {
+    private static final String TAG = "encapp.catalog";
+    private static CodecCatalog sCatalog;
+
+    private final List<Entry> mEncoders = new ArrayList<>();
+    private final List<Entry> mDecoders = new ArrayList<>();
+    // Lower case name of all video codecs
+    private final HashMap<String, Entry> mByName = new HashMap<>();
+    // Sorted lower case names of video encoders for prefix lookups
+    private final TreeMap<String, Entry> mEncoderNames = new TreeMap<>();
+    // Lower case mime type to video encoders
+    private final HashMap<String, List<Entry>> mEncodersByMime = new HashMap<>();
+    // Lookups that have been made, lower case query to matching encoders
+    private final HashMap<String, List<MediaCodecInfo>> mResolved = new HashMap<>();
+    private String mText;
+
+    public static class Entry {
+        public final MediaCodecInfo mInfo;
+        public final String mName;
+        private String mSummary;
+
+        Entry(MediaCodecInfo info) {
+            mInfo = info;
+            mName = info.getName();
+        }
+
+        /**
+         * @return capabilities as text, see MediaCodecInfoHelper.toText.
+         */
+        public synchronized String getSummary() {
+            if (mSummary == null) {
+                mSummary = MediaCodecInfoHelper.toText(mInfo, 1);
+            }
+            return mSummary;
+        }
+    }
+
+    public static synchronized CodecCatalog get() {
+        if (sCatalog == null) {
+            sCatalog = new CodecCatalog();
+        }
+        return sCatalog;
+    }
+
+    private CodecCatalog() {
+        long start = System.nanoTime();
+        MediaCodecInfo[] codecInfos = new MediaCodecList(MediaCodecList.ALL_CODECS).getCodecInfos();
+        for (MediaCodecInfo info : codecInfos) {
+            String[] types = info.getSupportedTypes();
+            if (types.length == 0 || !types[0].toLowerCase(Locale.US).contains("video")) {
+                continue;
+            }
+            Entry entry = new Entry(info);
+            String name = entry.mName.toLowerCase(Locale.US);
+            mByName.put(name, entry);
+            if (info.isEncoder()) {
+                mEncoders.add(entry);
+                mEncoderNames.put(name, entry);
+                for (String type : types) {
+                    String mime = type.toLowerCase(Locale.US);
+                    List<Entry> list = mEncodersByMime.get(mime);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        mEncodersByMime.put(mime, list);
+                    }
+                    list.add(entry);
+                }
+            } else {
+                mDecoders.add(entry);
+            }
+        }
+        Log.d(TAG, "Codec catalog: " + mEncoders.size() + " encoders, " + mDecoders.size() +
+                " decoders, " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Finds video encoders by name.
+     *
+     * An exact name gives that codec only, otherwise all codecs starting with or containing the
+     * id are returned. An id like video/avc gives the encoders for that mime type.
+     */
+    public synchronized List<MediaCodecInfo> findEncoders(String id) {
+        String query = id.toLowerCase(Locale.US);
+        List<MediaCodecInfo> matching = mResolved.get(query);
+        if (matching != null) {
+            return matching;
+        }
+        matching = new ArrayList<>();
+        Entry exact = mEncoderNames.get(query);
+        if (exact != null) {
+            matching.add(exact.mInfo);
+        } else {
+            // Prefix matches come in name order, ahead of other substring matches
+            for (Map.Entry<String, Entry> entry : mEncoderNames.tailMap(query).entrySet()) {
+                if (!entry.getKey().startsWith(query)) {
+                    break;
+                }
+                matching.add(entry.getValue().mInfo);
+            }
+            for (Map.Entry<String, Entry> entry : mEncoderNames.entrySet()) {
+                if (!entry.getKey().startsWith(query) && entry.getKey().contains(query)) {
+                    matching.add(entry.getValue().mInfo);
+                }
+            }
+            if (matching.isEmpty() && mEncodersByMime.containsKey(query)) {
+                for (Entry entry : mEncodersByMime.get(query)) {
+                    matching.add(entry.mInfo);
+                }
+            }
+        }
+        matching = Collections.unmodifiableList(matching);
+        mResolved.put(query, matching);
+        return matching;
+    }
+
+    /**
+     * @return the video codec with the exact name (any case) or null.
+     */
+    public MediaCodecInfo getCodec(String name) {
+        Entry entry = mByName.get(name.toLowerCase(Locale.US));
+        return (entry != null) ? entry.mInfo : null;
+    }
+
+    /**
+     * @return all video encoders and decoders with capabilities, the codecs.txt format.
+     */
+    public synchronized String toText() {
+        if (mText == null) {
+            StringBuilder text = new StringBuilder("encoders {\n");
+            for (Entry entry : mEncoders) {
+                text.append(entry.getSummary());
+            }
+            text.append("}\n");
+            text.append("decoders {\n");
+            for (Entry entry : mDecoders) {
+                text.append(entry.getSummary());
+            }
+            text.append("}\n");
+            mText = text.toString();
+        }
+        return mText;
+    }
+
+    public boolean writeToFile(String path) {
+        try (FileWriter writer = new FileWriter(path)) {
+            writer.write(toText());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
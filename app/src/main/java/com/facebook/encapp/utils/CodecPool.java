@@ -0,0 +1,117 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps codec instances between tests so serial tests on the same codec skip creation.
+ *
+ * Instances are keyed by codec name and input mode (e.g. buffer or surface input). A returned
+ * instance is reset() which brings it back to the uninitialized state, ready to be configured
+ * again. Idle instances hold codec resources so only a few are kept and all of them are
+ * released if a new instance can not be created.
+ */
+public class CodecPool {
+    private static final String TAG = "encapp.codecpool";
+    public static final String MODE_BUFFER = "buffer";
+    public static final String MODE_SURFACE = "surface";
+    public static final String MODE_DECODER = "decoder";
+    private static final int MAX_IDLE_PER_KEY = 1;
+    private static final int MAX_IDLE = 4;
+
+    private static final HashMap<String, ArrayDeque<MediaCodec>> sIdle = new HashMap<>();
+    private static int sIdleCount = 0;
+
+    /**
+     * Returns an uninitialized codec, reused if one is available.
+     */
+    public static Acquired acquire(String name, String mode) throws IOException {
+        String key = name + "/" + mode;
+        synchronized (sIdle) {
+            ArrayDeque<MediaCodec> idle = sIdle.get(key);
+            if (idle != null && !idle.isEmpty()) {
+                sIdleCount--;
+                Log.d(TAG, "Reuse codec: " + key);
+                return new Acquired(idle.pop(), true);
+            }
+        }
+        try {
+            return new Acquired(MediaCodec.createByCodecName(name), false);
+        } catch (IOException | MediaCodec.CodecException e) {
+            if (releaseAll() == 0) {
+                throw e;
+            }
+            Log.d(TAG, "Released idle codecs, retry: " + key);
+            return new Acquired(MediaCodec.createByCodecName(name), false);
+        }
+    }
+
+    /**
+     * Hands back a codec after use (instead of stop() and release()).
+     */
+    public static void recycle(MediaCodec codec, String name, String mode) {
+        if (codec == null) {
+            return;
+        }
+        String key = name + "/" + mode;
+        try {
+            codec.reset();
+            codec.setCallback(null);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Reset failed, release codec: " + key + ", " + e.getMessage());
+            codec.release();
+            return;
+        }
+        synchronized (sIdle) {
+            ArrayDeque<MediaCodec> idle = sIdle.get(key);
+            if (idle == null) {
+                idle = new ArrayDeque<>();
+                sIdle.put(key, idle);
+            }
+            if (idle.size() < MAX_IDLE_PER_KEY && sIdleCount < MAX_IDLE) {
+                idle.push(codec);
+                sIdleCount++;
+                return;
+            }
+        }
+        codec.release();
+    }
+
+    /**
+     * Releases all idle codecs.
+     *
+     * @return number of released codecs.
+     */
+    public static int releaseAll() {
+        int count = 0;
+        synchronized (sIdle) {
+            for (Map.Entry<String, ArrayDeque<MediaCodec>> entry : sIdle.entrySet()) {
+                for (MediaCodec codec : entry.getValue()) {
+                    codec.release();
+                    count++;
+                }
+            }
+            sIdle.clear();
+            sIdleCount = 0;
+        }
+        if (count > 0) {
+            Log.d(TAG, "Released " + count + " idle codecs");
+        }
+        return count;
+    }
+
+    public static class Acquired {
+        public final MediaCodec mCodec;
+        public final boolean mReused;
+
+        Acquired(MediaCodec codec, boolean reused) {
+            mCodec = codec;
+            mReused = reused;
+        }
+    }
+}
@@ -13,6 +13,8 @@ public class FileReader {
     private static final String TAG = "encapp";
     File mFile;
     BufferedInputStream mBis;
+    // Reused between frames when the target buffer is not array backed
+    byte[] mScratch;
     public FileReader() {
     }
 
@@ -57,10 +59,15 @@ public class FileReader {
                 return 0;
             }
         } else {
-            byte[] bytes = new byte[size];
+            if (mScratch == null || mScratch.length != size) {
+                mScratch = new byte[size];
+            }
+            byte[] bytes = mScratch;
             try {
                 int read = mBis.read(bytes, 0, bytes.length);
-                buffer.put(bytes);
+                if (read > 0) {
+                    buffer.put(bytes, 0, read);
+                }
                 return read;
             } catch (IOException e) {
                 Log.e(TAG, "error: " + e.getMessage());
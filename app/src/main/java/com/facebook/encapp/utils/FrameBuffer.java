@@ -9,6 +9,8 @@ public class FrameBuffer implements BufferObject {
         public MediaCodec mCodec;
         public int mBufferId = -1;
         public MediaCodec.BufferInfo mInfo;
+        // Source frame number given by the producer, -1 if not numbered
+        public int mFrame = -1;
 
     public FrameBuffer(MediaCodec codec, int id, MediaCodec.BufferInfo info) {
         mCodec = codec;
@@ -16,6 +18,20 @@ public class FrameBuffer implements BufferObject {
         mInfo = info;
     }
 
+    /**
+     * Recyclable buffer with its own BufferInfo, see FrameBufferPool.
+     */
+    public FrameBuffer() {
+        mInfo = new MediaCodec.BufferInfo();
+    }
+
+    public void set(MediaCodec codec, int id, MediaCodec.BufferInfo info, int frame) {
+        mCodec = codec;
+        mBufferId = id;
+        mFrame = frame;
+        mInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+    }
+
 
     @Override
     public long getTimestampUs() {
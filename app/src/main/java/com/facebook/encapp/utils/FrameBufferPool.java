@@ -0,0 +1,48 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+
+/**
+ * Recycles FrameBuffer objects between one producer thread (codec callback) and one
+ * consumer thread so no descriptor is allocated per frame once the pool is warm.
+ *
+ * obtain() must only be called by the producer and recycle() only by the consumer.
+ */
+public class FrameBufferPool {
+    private final SpscRingBuffer<FrameBuffer> mFree;
+    private int mAllocated = 0;
+
+    /**
+     * @param capacity size of the queue the buffers are passed through.
+     */
+    public FrameBufferPool(int capacity) {
+        // Room for a full queue plus the buffers held by the producer and the consumer,
+        // otherwise a recycled buffer can find the pool full and is allocated again later
+        mFree = new SpscRingBuffer<>(capacity + 2);
+    }
+
+    public FrameBuffer obtain(MediaCodec codec, int id, MediaCodec.BufferInfo info) {
+        return obtain(codec, id, info, -1);
+    }
+
+    public FrameBuffer obtain(MediaCodec codec, int id, MediaCodec.BufferInfo info, int frame) {
+        FrameBuffer buffer = mFree.poll();
+        if (buffer == null) {
+            buffer = new FrameBuffer();
+            mAllocated++;
+        }
+        buffer.set(codec, id, info, frame);
+        return buffer;
+    }
+
+    public void recycle(FrameBuffer buffer) {
+        buffer.mCodec = null;
+        buffer.mBufferId = -1;
+        // If the pool is full the buffer is left to the garbage collector
+        mFree.offer(buffer);
+    }
+
+    public int getAllocatedCount() {
+        return mAllocated;
+    }
+}
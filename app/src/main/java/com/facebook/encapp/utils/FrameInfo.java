@@ -9,6 +9,7 @@ public class FrameInfo {
     boolean mIsIframe;
     int mFlags;
     int mOriginalFrame;
+    long mChecksum = -1;
 
     public FrameInfo(long pts) {
         mPts = pts;
@@ -20,6 +21,21 @@ public class FrameInfo {
         mOriginalFrame = originalFrame;
     }
 
+    /**
+     * Clears all measurements so a preallocated object can be used for a new frame.
+     */
+    public void reset(long pts, int originalFrame) {
+        mPts = pts;
+        mOriginalFrame = originalFrame;
+        mSize = 0;
+        mProcessTime = 0;
+        mStartTime = 0;
+        mStopTime = 0;
+        mIsIframe = false;
+        mFlags = 0;
+        mChecksum = -1;
+    }
+
     public void setSize(long size) {
         mSize = size;
     }
@@ -47,6 +63,14 @@ public class FrameInfo {
     public void setFlags(int flags) {
         mFlags = flags;
     }
+
+    public long getChecksum() {
+        return mChecksum;
+    }
+
+    public void setChecksum(long checksum) {
+        mChecksum = checksum;
+    }
     public void start(){
         mStartTime = System.nanoTime();
     }
@@ -0,0 +1,111 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces realtime input against absolute deadlines, frame N is due at t0 + N * period.
+ *
+ * The thread parks until shortly before the deadline and spins the rest of the way, so
+ * errors do not accumulate over time. Spinning costs cpu, it is turned off when several
+ * sessions run in parallel and the pacer only parks. The lateness of every frame is kept in
+ * a histogram.
+ * If a frame is more than one period late the schedule moves forward instead of bursting
+ * frames to catch up.
+ */
+public class FramePacer {
+    private static final String TAG = "encapp.pacer";
+    // Park granularity is not better than this, spin the remaining time
+    private static final long SPIN_NS = 200000;
+    // Upper bounds of the histogram buckets, the last bucket takes the rest
+    public static final int[] BUCKET_LIMITS_US = {50, 100, 250, 500, 1000, 2000, 5000, 10000};
+
+    private double mDeadlineNs = -1;
+    private boolean mSpin = true;
+    private final long[] mBuckets = new long[BUCKET_LIMITS_US.length + 1];
+    private long mFrames = 0;
+    private long mErrorSumNs = 0;
+    private long mMaxErrorNs = 0;
+    private long mResyncs = 0;
+
+    /**
+     * @param spin if false the thread only parks and never spins until the deadline.
+     */
+    public void setSpin(boolean spin) {
+        mSpin = spin;
+    }
+
+    /**
+     * Waits until the next frame is due, the first frame is due immediately.
+     *
+     * @param periodUsec time between the previous and the next frame.
+     */
+    public void awaitNextFrame(double periodUsec) {
+        long now = System.nanoTime();
+        double periodNs = periodUsec * 1000;
+        if (mDeadlineNs < 0) {
+            mDeadlineNs = now;
+        } else {
+            mDeadlineNs += periodNs;
+        }
+        long deadline = (long) mDeadlineNs;
+
+        long spinNs = mSpin ? SPIN_NS : 0;
+        long remaining = deadline - now;
+        while (remaining > spinNs) {
+            LockSupport.parkNanos(remaining - spinNs);
+            remaining = deadline - System.nanoTime();
+        }
+        while (remaining > 0) {
+            remaining = deadline - System.nanoTime();
+        }
+
+        long error = -remaining;
+        record(error);
+        if (error > periodNs) {
+            // Do not try to catch up, start over from now
+            Log.d(TAG, "Frame late by " + error / 1000 + " us, resync");
+            mDeadlineNs = System.nanoTime();
+            mResyncs++;
+        }
+    }
+
+    public void reset() {
+        mDeadlineNs = -1;
+    }
+
+    private void record(long errorNs) {
+        long errorUs = errorNs / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && errorUs >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        mBuckets[bucket]++;
+        mFrames++;
+        mErrorSumNs += errorNs;
+        if (errorNs > mMaxErrorNs) {
+            mMaxErrorNs = errorNs;
+        }
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public long[] getHistogram() {
+        return mBuckets;
+    }
+
+    public double getMeanErrorUs() {
+        return (mFrames > 0) ? mErrorSumNs / 1000.0 / mFrames : 0;
+    }
+
+    public double getMaxErrorUs() {
+        return mMaxErrorNs / 1000.0;
+    }
+
+    public long getResyncCount() {
+        return mResyncs;
+    }
+}
@@ -0,0 +1,96 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+/**
+ * Recycles frames between the thread producing them and the renderer.
+ *
+ * At most capacity frames are allocated, when all of them are queued for rendering obtain()
+ * waits for one to be returned instead of allocating more. obtain() must only be called by
+ * the producing thread and recycle() only by the renderer.
+ */
+public class FramePool<T> {
+    private static final String TAG = "encapp.framepool";
+    private static final long WAIT_NS = 3000000000L;  // 3 sec
+
+    /**
+     * Describes the frame a caller needs. Keep one instance and update it between calls so
+     * obtain() does not allocate.
+     */
+    public interface Factory<T> {
+        T create();
+
+        boolean matches(T frame);
+    }
+
+    /**
+     * Frees what the garbage collector does not when the pool drops a frame.
+     */
+    public interface Releaser<T> {
+        void release(T frame);
+    }
+
+    private final SpscRingBuffer<T> mFree;
+    private final int mCapacity;
+    private final Releaser<T> mReleaser;
+    private int mAllocated = 0;
+    private long mWaits = 0;
+
+    public FramePool(int capacity) {
+        this(capacity, null);
+    }
+
+    public FramePool(int capacity, Releaser<T> releaser) {
+        mFree = new SpscRingBuffer<>(capacity);
+        mCapacity = capacity;
+        mReleaser = releaser;
+    }
+
+    public T obtain(Factory<T> factory) {
+        T frame = mFree.poll();
+        if (frame == null && mAllocated < mCapacity) {
+            mAllocated++;
+            return factory.create();
+        }
+        if (frame == null) {
+            mWaits++;
+            long deadline = System.nanoTime() + WAIT_NS;
+            while (frame == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    // The renderer is not returning frames, do not stall the producer
+                    Log.w(TAG, "No frame returned in time, allocate a new one");
+                    mAllocated++;
+                    return factory.create();
+                }
+                mFree.await(remaining);
+                frame = mFree.poll();
+            }
+        }
+        if (!factory.matches(frame)) {
+            release(frame);
+            frame = factory.create();
+        }
+        return frame;
+    }
+
+    public void recycle(T frame) {
+        if (!mFree.offer(frame)) {
+            release(frame);
+        }
+    }
+
+    private void release(T frame) {
+        if (mReleaser != null) {
+            mReleaser.release(frame);
+        }
+    }
+
+    public int getAllocatedCount() {
+        return mAllocated;
+    }
+
+    public long getWaitCount() {
+        return mWaits;
+    }
+}
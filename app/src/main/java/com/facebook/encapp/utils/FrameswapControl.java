@@ -5,7 +5,37 @@ import android.graphics.SurfaceTexture;
 import android.view.Surface;
 
 public class FrameswapControl extends WindowSurface {
+    /**
+     * Gets the decision for every source frame on the renderer thread, before it is drawn.
+     */
+    public interface FrameListener {
+        /**
+         * @param frame source frame number passed with the buffer, -1 if not numbered.
+         */
+        void onFrame(long timestampUsec, int frame, boolean kept);
+    }
+
+    /**
+     * Drops numbered source frames for this output only, called on the renderer thread.
+     */
+    public interface FrameFilter {
+        boolean drop(int frame);
+    }
+
     private boolean mDropNext = false;
+    // Source frames per drawn frame, see setKeepInterval()
+    private double mKeepInterval = 1.0;
+    private double mKeepCredit = 0;
+    private long mDecimatedFrames = 0;
+    private volatile FrameListener mFrameListener = null;
+    private volatile FrameFilter mFrameFilter = null;
+    // Set if a RenderWorker draws this output
+    private RenderWorker mWorker = null;
+    // Updated by the thread drawing this output
+    private long mDrawnFrames = 0;
+    private long mDroppedFrames = 0;
+    private long mDrawTimeSumNs = 0;
+    private long mMaxDrawTimeNs = 0;
 
     public FrameswapControl(EglCore eglCore, Surface surface, boolean releaseSurface) {
         super(eglCore, surface, releaseSurface);
@@ -15,11 +45,108 @@ public class FrameswapControl extends WindowSurface {
         super(eglCore, surfaceTexture);
     }
 
-    public boolean keepFrame() {
-        return !mDropNext;
+    /**
+     * Decides if the next source frame is drawn to this output. Called by the renderer once
+     * for every source frame, before any drawing.
+     */
+    public boolean keepFrame(long timestampUsec, int frame) {
+        boolean keep;
+        FrameFilter filter = mFrameFilter;
+        synchronized (this) {
+            keep = !mDropNext && (frame < 0 || filter == null || !filter.drop(frame));
+            if (keep && mKeepInterval > 1.0) {
+                // Each source frame adds 1 / interval, a whole frame of credit is drawn
+                mKeepCredit += 1.0 / mKeepInterval;
+                if (mKeepCredit >= 1.0 - 1e-9) {
+                    mKeepCredit -= 1.0;
+                } else {
+                    keep = false;
+                    mDecimatedFrames++;
+                }
+            }
+        }
+        FrameListener listener = mFrameListener;
+        if (listener != null) {
+            listener.onFrame(timestampUsec, frame, keep);
+        }
+        return keep;
+    }
+
+    public void setFrameListener(FrameListener listener) {
+        mFrameListener = listener;
+    }
+
+    public void setFrameFilter(FrameFilter filter) {
+        mFrameFilter = filter;
+    }
+
+    /**
+     * Draws one out of interval source frames, e.g. 2 gives 15 fps from 30 fps and 1.5
+     * gives 20 fps (two out of three frames). 1 or less draws every frame.
+     */
+    public synchronized void setKeepInterval(double interval) {
+        if (interval == mKeepInterval) {
+            return;
+        }
+        mKeepInterval = interval;
+        // The next frame is drawn
+        mKeepCredit = (interval > 1.0) ? 1.0 - 1.0 / interval : 0;
+    }
+
+    public void setFramerate(float sourceFps, float outputFps) {
+        setKeepInterval((outputFps > 0) ? sourceFps / outputFps : 1.0);
     }
 
     public void dropNext(boolean drop) {
         mDropNext = drop;
     }
+
+    void setWorker(RenderWorker worker) {
+        mWorker = worker;
+    }
+
+    public RenderWorker getWorker() {
+        return mWorker;
+    }
+
+    /**
+     * @param latencyNs time from the source frame being ready until the swap returned.
+     */
+    public synchronized void recordDraw(long latencyNs) {
+        mDrawnFrames++;
+        mDrawTimeSumNs += latencyNs;
+        if (latencyNs > mMaxDrawTimeNs) {
+            mMaxDrawTimeNs = latencyNs;
+        }
+    }
+
+    public synchronized void recordDrop() {
+        mDroppedFrames++;
+    }
+
+    public synchronized long getDrawnFrames() {
+        return mDrawnFrames;
+    }
+
+    /**
+     * @return frames dropped because the output queue was full.
+     */
+    public synchronized long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return frames skipped by the frame rate decimation.
+     */
+    public synchronized long getDecimatedFrames() {
+        return mDecimatedFrames;
+    }
+
+    public synchronized double getMeanDrawLatencyMs() {
+        return (mDrawnFrames > 0) ? mDrawTimeSumNs / 1000000.0 / mDrawnFrames : 0;
+    }
+
+    public synchronized double getMaxDrawLatencyMs() {
+        return mMaxDrawTimeNs / 1000000.0;
+    }
 }
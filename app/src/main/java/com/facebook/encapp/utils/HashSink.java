@@ -0,0 +1,48 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Stores nothing, computes a crc32 of every encoded frame for the stats instead.
+ *
+ * A checksum over the whole stream is kept as well so runs can be compared at a glance.
+ */
+public class HashSink implements OutputSink {
+    private final Statistics mStats;
+    private final CRC32 mFrameCrc = new CRC32();
+    private final CRC32 mStreamCrc = new CRC32();
+
+    public HashSink(Statistics stats) {
+        mStats = stats;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return 0;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        ByteBuffer frame = data.duplicate();
+        frame.limit(info.offset + info.size);
+        frame.position(info.offset);
+        mFrameCrc.reset();
+        mFrameCrc.update(frame);
+        frame.position(info.offset);
+        mStreamCrc.update(frame);
+        mStats.setEncodedFrameChecksum(mFrameCrc.getValue());
+        mStats.setStreamChecksum(mStreamCrc.getValue());
+    }
+
+    @Override
+    public void release() {
+    }
+}
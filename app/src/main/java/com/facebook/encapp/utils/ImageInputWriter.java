@@ -0,0 +1,172 @@
+package com.facebook.encapp.utils;
+
+import android.media.Image;
+
+import com.facebook.encapp.proto.Input;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Copies packed raw yuv frames into the plane layout of a codec input image.
+ *
+ * Row and pixel strides of the image are honored, rows are copied in bulk whenever the
+ * source and destination layout allows it. Conversion between yuv420p and nv12 is done
+ * in the same pass as the copy, with the row kernels of PixelFormatConverter.
+ */
+public class ImageInputWriter {
+    final int mWidth;
+    final int mHeight;
+    final int mChromaWidth;
+    final int mChromaHeight;
+    final boolean mSourceInterleaved;
+    final byte[] mRow;
+    final byte[] mURow;
+    final byte[] mVRow;
+    // Little endian views of the rows for the converter
+    final ByteBuffer mRowBuffer;
+    final ByteBuffer mURowBuffer;
+    final ByteBuffer mVRowBuffer;
+
+    public ImageInputWriter(int width, int height, Input.PixFmt pixFmt) {
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = (width + 1) / 2;
+        mChromaHeight = (height + 1) / 2;
+        mSourceInterleaved = pixFmt == Input.PixFmt.nv12;
+        mRow = new byte[mChromaWidth * 2];
+        mURow = new byte[mChromaWidth];
+        mVRow = new byte[mChromaWidth];
+        mRowBuffer = ByteBuffer.wrap(mRow).order(ByteOrder.LITTLE_ENDIAN);
+        mURowBuffer = ByteBuffer.wrap(mURow).order(ByteOrder.LITTLE_ENDIAN);
+        mVRowBuffer = ByteBuffer.wrap(mVRow).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes one frame, frame is expected to be positioned at the start of the data.
+     *
+     * @return number of bytes consumed from frame.
+     */
+    public int write(ByteBuffer frame, Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        int base = frame.position();
+        int lumaSize = mWidth * mHeight;
+        int chromaSize = mChromaWidth * mChromaHeight;
+
+        copyPlane(frame, base, mWidth, mWidth, mHeight, planes[0]);
+
+        int chromaBase = base + lumaSize;
+        Image.Plane uPlane = planes[1];
+        Image.Plane vPlane = planes[2];
+        if (!mSourceInterleaved && uPlane.getPixelStride() == 1 && vPlane.getPixelStride() == 1) {
+            // yuv420p to planar
+            copyPlane(frame, chromaBase, mChromaWidth, mChromaWidth, mChromaHeight, uPlane);
+            copyPlane(frame, chromaBase + chromaSize, mChromaWidth, mChromaWidth, mChromaHeight, vPlane);
+        } else {
+            copyChroma(frame, chromaBase, uPlane, vPlane);
+        }
+        frame.position(base);
+        return lumaSize + 2 * chromaSize;
+    }
+
+    private void copyPlane(ByteBuffer src, int offset, int srcStride, int rowLength, int rows, Image.Plane plane) {
+        ByteBuffer dst = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        if (rowStride == srcStride) {
+            int len = Math.min(srcStride * (rows - 1) + rowLength, dst.capacity());
+            src.limit(offset + len);
+            src.position(offset);
+            dst.position(0);
+            dst.put(src);
+        } else {
+            for (int row = 0; row < rows; row++) {
+                int srcOffset = offset + row * srcStride;
+                src.limit(srcOffset + rowLength);
+                src.position(srcOffset);
+                dst.position(row * rowStride);
+                dst.put(src);
+            }
+        }
+        src.limit(src.capacity());
+    }
+
+    private void copyChroma(ByteBuffer src, int offset, Image.Plane uPlane, Image.Plane vPlane) {
+        ByteBuffer u = uPlane.getBuffer();
+        ByteBuffer v = vPlane.getBuffer();
+        int uRowStride = uPlane.getRowStride();
+        int vRowStride = vPlane.getRowStride();
+        int uPixelStride = uPlane.getPixelStride();
+        int vPixelStride = vPlane.getPixelStride();
+        int chromaSize = mChromaWidth * mChromaHeight;
+        int rowLength = mChromaWidth * 2;
+        boolean semiPlanar = uPixelStride == 2 && vPixelStride == 2 && uRowStride == vRowStride &&
+                isInterleaved(u, v);
+
+        for (int row = 0; row < mChromaHeight; row++) {
+            if (semiPlanar) {
+                // nv12 destination, a row of u and v pairs is written through the u plane
+                if (mSourceInterleaved) {
+                    src.position(offset + row * rowLength);
+                    src.get(mRow, 0, rowLength);
+                } else {
+                    src.position(offset + row * mChromaWidth);
+                    src.get(mURow, 0, mChromaWidth);
+                    src.position(offset + chromaSize + row * mChromaWidth);
+                    src.get(mVRow, 0, mChromaWidth);
+                    PixelFormatConverter.interleaveRow(mURowBuffer, 0, mVRowBuffer, 0, mRowBuffer, 0, mChromaWidth);
+                }
+                putInterleavedRow(u, v, row * uRowStride, rowLength);
+                continue;
+            }
+            if (mSourceInterleaved) {
+                src.position(offset + row * rowLength);
+                src.get(mRow, 0, rowLength);
+                PixelFormatConverter.deinterleaveRow(mRowBuffer, 0, mURowBuffer, 0, mVRowBuffer, 0, mChromaWidth);
+            } else {
+                src.position(offset + row * mChromaWidth);
+                src.get(mURow, 0, mChromaWidth);
+                src.position(offset + chromaSize + row * mChromaWidth);
+                src.get(mVRow, 0, mChromaWidth);
+            }
+            putRow(u, row * uRowStride, uPixelStride, mURow);
+            putRow(v, row * vRowStride, vPixelStride, mVRow);
+        }
+    }
+
+    // The u plane usually ends before the last v sample, which is then written through v
+    private void putInterleavedRow(ByteBuffer u, ByteBuffer v, int offset, int rowLength) {
+        int len = Math.min(rowLength, u.limit() - offset);
+        u.position(offset);
+        u.put(mRow, 0, len);
+        if (len < rowLength) {
+            v.put(offset + rowLength - 2, mRow[rowLength - 1]);
+        }
+    }
+
+    /**
+     * @return true if v starts one byte after u in the same memory, i.e. the two planes are
+     * views of a single nv12 chroma plane.
+     */
+    private static boolean isInterleaved(ByteBuffer u, ByteBuffer v) {
+        if (u.limit() < 2 || v.limit() < 1) {
+            return false;
+        }
+        // The frame is written next, the probe does not need to be undone
+        byte probe = (byte) ~u.get(1);
+        v.put(0, probe);
+        return u.get(1) == probe;
+    }
+
+    private void putRow(ByteBuffer dst, int offset, int pixelStride, byte[] row) {
+        if (pixelStride == 1) {
+            dst.position(offset);
+            dst.put(row, 0, mChromaWidth);
+        } else {
+            int index = offset;
+            for (int i = 0; i < mChromaWidth; i++) {
+                dst.put(index, row[i]);
+                index += pixelStride;
+            }
+        }
+    }
+}
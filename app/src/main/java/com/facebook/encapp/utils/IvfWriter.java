@@ -0,0 +1,90 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes vp8/vp9/av1 frames in an IVF container.
+ *
+ * The time base is microseconds so presentation times are stored as is. The frame count in
+ * the header is updated when the writer is released.
+ */
+public class IvfWriter extends StreamFileWriter {
+    private static final int HEADER_SIZE = 32;
+    private static final int FRAME_HEADER_SIZE = 12;
+    private static final int FRAME_COUNT_OFFSET = 24;
+
+    private final String mFourcc;
+    private final int mWidth;
+    private final int mHeight;
+    private int mFrameCount = 0;
+    private boolean mStarted = false;
+
+    public IvfWriter(String path, String fourcc, int width, int height) throws IOException {
+        super(path);
+        mFourcc = fourcc;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * @return the IVF fourcc for the mime type or null if IVF does not support it.
+     */
+    public static String getFourcc(String mime) {
+        if (MediaFormat.MIMETYPE_VIDEO_VP8.equals(mime)) return "VP80";
+        if (MediaFormat.MIMETYPE_VIDEO_VP9.equals(mime)) return "VP90";
+        if (MediaFormat.MIMETYPE_VIDEO_AV1.equals(mime)) return "AV01";
+        return null;
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return 0;
+    }
+
+    @Override
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        ByteBuffer header = reserve(HEADER_SIZE);
+        header.put("DKIF".getBytes(StandardCharsets.US_ASCII));
+        header.putShort((short) 0); // version
+        header.putShort((short) HEADER_SIZE);
+        header.put(mFourcc.getBytes(StandardCharsets.US_ASCII));
+        header.putShort((short) mWidth);
+        header.putShort((short) mHeight);
+        header.putInt(1000000); // time base denominator
+        header.putInt(1); // time base numerator
+        header.putInt(0); // frame count, updated in finish()
+        header.putInt(0); // unused
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // Not part of an IVF stream
+            return;
+        }
+        start();
+        ByteBuffer frameHeader = reserve(FRAME_HEADER_SIZE + info.size);
+        frameHeader.putInt(info.size);
+        frameHeader.putLong(info.presentationTimeUs);
+        put(data, info.offset, info.size);
+        mFrameCount++;
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        count.putInt(mFrameCount);
+        count.flip();
+        mChannel.write(count, FRAME_COUNT_OFFSET);
+    }
+}
@@ -0,0 +1,113 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads raw frames through a memory mapping of the input file.
+ *
+ * Frames are copied straight from the mapping into the codec buffer, no intermediate
+ * heap arrays are allocated. The file is mapped in windows so inputs larger than what
+ * a single mapping can address (2GB) are supported as well.
+ */
+public class MappedFileReader extends FileReader {
+    private static final String TAG = "encapp.mappedreader";
+    // Upper bound for a single mapping, rounded down to a whole number of frames on use.
+    private static final long MAX_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    RandomAccessFile mRaf;
+    FileChannel mChannel;
+    MappedByteBuffer mWindow;
+    long mWindowOffset = 0;
+    long mPosition = 0;
+    long mFileSize = 0;
+
+    public MappedFileReader() {
+    }
+
+    @Override
+    public boolean openFile(String name) {
+        try {
+            synchronized (this) {
+                Log.d(TAG, "Open file: " + name);
+                mRaf = new RandomAccessFile(name, "r");
+                mChannel = mRaf.getChannel();
+                mFileSize = mChannel.size();
+                mWindow = null;
+                mWindowOffset = 0;
+                mPosition = 0;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open file: " + name + ", " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void closeFile() {
+        try {
+            synchronized (this) {
+                Log.d(TAG, "Close file");
+                mWindow = null;
+                if (mChannel != null) {
+                    mChannel.close();
+                    mChannel = null;
+                }
+                if (mRaf != null) {
+                    mRaf.close();
+                    mRaf = null;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public int fillBuffer(ByteBuffer buffer, int size) {
+        synchronized (this) {
+            if (mChannel == null) return 0;
+            long left = mFileSize - mPosition;
+            if (left <= 0) {
+                return -1;
+            }
+            int len = (int) Math.min(size, left);
+            len = Math.min(len, buffer.remaining());
+            try {
+                if (mWindow == null || mPosition + len > mWindowOffset + mWindow.capacity()) {
+                    mapWindow(mPosition, size);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to map file: " + e.getMessage());
+                e.printStackTrace();
+                return 0;
+            }
+
+            int start = (int) (mPosition - mWindowOffset);
+            mWindow.limit(start + len);
+            mWindow.position(start);
+            buffer.put(mWindow);
+            mPosition += len;
+            return len;
+        }
+    }
+
+    private void mapWindow(long offset, int frameSize) throws IOException {
+        long windowSize = MAX_WINDOW_SIZE;
+        if (frameSize > 0 && frameSize < windowSize) {
+            windowSize -= windowSize % frameSize;
+        } else {
+            windowSize = Math.max(frameSize, 0);
+        }
+        windowSize = Math.min(windowSize, mFileSize - offset);
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, offset, windowSize);
+        mWindowOffset = offset;
+    }
+}
@@ -0,0 +1,39 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes mp4 or webm through MediaMuxer.
+ */
+public class MuxerSink implements OutputSink {
+    private final MediaMuxer mMuxer;
+
+    public MuxerSink(String path, int format) throws IOException {
+        mMuxer = new MediaMuxer(path, format);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info) {
+        mMuxer.writeSampleData(trackIndex, data, info);
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
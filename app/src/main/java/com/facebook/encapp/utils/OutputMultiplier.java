@@ -12,17 +12,24 @@ import android.util.Log;
 import android.view.Choreographer;
 import android.view.Surface;
 
+import com.facebook.encapp.proto.Input;
 import com.facebook.encapp.utils.grafika.EglCore;
 import com.facebook.encapp.utils.grafika.EglSurfaceBase;
 import com.facebook.encapp.utils.grafika.FullFrameRect;
 import com.facebook.encapp.utils.grafika.GlUtil;
+import com.facebook.encapp.utils.grafika.OffscreenSurface;
 import com.facebook.encapp.utils.grafika.Texture2dProgram;
 
+import java.util.ArrayList;
 import java.util.Vector;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class OutputMultiplier {
     final static int WAIT_TIME_SHORT_MS = 3000;  // 3 sec
+    final static int FRAME_QUEUE_SIZE = 32;
+    // Raw yuv frames in flight between the reader and the renderer
+    final static int YUV_FRAME_COUNT = 4;
+    // Bitmap frames in flight between the producer and the renderer
+    final static int BITMAP_FRAME_COUNT = 3;
     private static final String TAG = "encapp.mult";
     private final float[] mTmpMatrix = new float[16];
     final private Object mLock = new Object();
@@ -42,6 +49,7 @@ public class OutputMultiplier {
     private int mWidth = -1;
     private int mHeight = -1;
     private boolean mVsynchWait = true;
+    private Input.RenderWorkers mRenderWorkers = Input.RenderWorkers.off;
 
     public OutputMultiplier(Texture2dProgram.ProgramType type) {
         mProgramType = type;
@@ -96,6 +104,25 @@ public class OutputMultiplier {
         synchronized (mLock) {
             mOutputSurfaces.remove(control);
         }
+        RenderWorker worker = control.getWorker();
+        if (worker != null && mRenderer != null) {
+            mRenderer.retireWorker(worker);
+        }
+    }
+
+    /**
+     * Draws every output on its own thread and EGL context instead of one after the other on
+     * the renderer thread. Must be set before the first surface is added.
+     */
+    public void setRenderWorkers(Input.RenderWorkers mode) {
+        if (mode == mRenderWorkers) {
+            return;
+        }
+        if (mRenderer != null) {
+            Log.w(TAG, "Renderer already started, render workers stay " + mRenderWorkers);
+            return;
+        }
+        mRenderWorkers = mode;
     }
 
     public void confirmSize(int width, int height) {
@@ -118,8 +145,37 @@ public class OutputMultiplier {
     }
 
 
+    /**
+     * Copies the bitmap into a pooled frame for rendering, the bitmap can be reused on return.
+     */
     public void newBitmapAvailable(Bitmap bitmap, long timestampUsec) {
-        mRenderer.newBitmapAvailable(bitmap, timestampUsec);
+        BitmapBuffer buffer = obtainBitmapBuffer(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        buffer.copyFrom(bitmap);
+        mRenderer.newBitmapBufferAvailable(buffer, timestampUsec);
+    }
+
+    /**
+     * @return a bitmap frame to fill and pass to newBitmapBufferAvailable(), waits if all
+     * frames are queued for rendering.
+     */
+    public BitmapBuffer obtainBitmapBuffer(int width, int height, Bitmap.Config config) {
+        return mRenderer.mBitmapPool.obtain(mRenderer.mBitmapFactory.set(width, height, config));
+    }
+
+    public void newBitmapBufferAvailable(BitmapBuffer buffer, long timestampUsec) {
+        mRenderer.newBitmapBufferAvailable(buffer, timestampUsec);
+    }
+
+    /**
+     * @return a frame to fill with raw yuv data and pass to newYuvBufferAvailable(),
+     * waits if all frames are queued for rendering.
+     */
+    public YuvBuffer obtainYuvBuffer(int width, int height, boolean interleaved) {
+        return mRenderer.mYuvPool.obtain(mRenderer.mYuvFactory.set(width, height, interleaved));
+    }
+
+    public void newYuvBufferAvailable(YuvBuffer buffer, long timestampUsec) {
+        mRenderer.newYuvBufferAvailable(buffer, timestampUsec);
     }
 
     public void newFrameAvailable() {
@@ -133,8 +189,15 @@ public class OutputMultiplier {
     }
 
     public void newFrameAvailableInBuffer(MediaCodec codec, int bufferId, MediaCodec.BufferInfo info) {
+        newFrameAvailableInBuffer(codec, bufferId, info, -1);
+    }
+
+    /**
+     * @param frame source frame number, passed to the frame listeners of the outputs.
+     */
+    public void newFrameAvailableInBuffer(MediaCodec codec, int bufferId, MediaCodec.BufferInfo info, int frame) {
         if (mRenderer != null) { // it will be null if no surface is connected
-            mRenderer.newFrameAvailableInBuffer(codec, bufferId, info);
+            mRenderer.newFrameAvailableInBuffer(codec, bufferId, info, frame);
         } else {
             codec.releaseOutputBuffer(bufferId, false);
         }
@@ -196,7 +259,18 @@ public class OutputMultiplier {
         private final Object mVSynchLock = new Object();
         private final Object mSizeLock = new Object();
         boolean mDone = false;
-        ConcurrentLinkedQueue<BufferObject> mFrameBuffers = new ConcurrentLinkedQueue<>();
+        // Filled by a single producer thread, see newFrameAvailableInBuffer,
+        // newBitmapBufferAvailable and newYuvBufferAvailable
+        SpscRingBuffer<BufferObject> mFrameBuffers = new SpscRingBuffer<>(FRAME_QUEUE_SIZE);
+        FrameBufferPool mFramePool = new FrameBufferPool(FRAME_QUEUE_SIZE);
+        FramePool<YuvBuffer> mYuvPool = new FramePool<>(YUV_FRAME_COUNT);
+        FramePool<BitmapBuffer> mBitmapPool = new FramePool<>(BITMAP_FRAME_COUNT, BitmapBuffer.RELEASER);
+        // Only used by the producer thread in obtainYuvBuffer and obtainBitmapBuffer
+        final YuvBuffer.Factory mYuvFactory = new YuvBuffer.Factory();
+        final BitmapBuffer.Factory mBitmapFactory = new BitmapBuffer.Factory();
+        // Created on the first yuv frame
+        private YuvTextures mYuvTextures;
+        private FullFrameRect mYuvBlit;
         private long mLatestTimestampNsec = 0;
         private long mTimestamp0 = -1;
         private long mCurrentVsync = 0;
@@ -205,6 +279,14 @@ public class OutputMultiplier {
         private int frameAvailable = 0;
         // temporary object
         private Object mSurfaceObject;
+        // With render workers the source is drawn on an offscreen surface
+        private OffscreenSurface mSourceSurface;
+        // Guarded by mLock
+        private final ArrayList<RenderWorker> mWorkers = new ArrayList<>();
+        // Workers of removed outputs, their slots are released by the renderer. Guarded by mLock
+        private final ArrayList<RenderWorker> mRetiredWorkers = new ArrayList<>();
+        // Outputs drawing the current source frame, see selectOutputs()
+        private final ArrayList<FrameswapControl> mFrameOutputs = new ArrayList<>();
         //private Bitmap mBitmap = null;
 
         public Renderer(Object surface) {
@@ -215,18 +297,27 @@ public class OutputMultiplier {
         @Override
         public void run() {
             Log.d(TAG, "Start rend");
-            mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE);
             FrameswapControl windowSurface = null;
-            if (mSurfaceObject instanceof SurfaceTexture) {
+            if (useWorkers()) {
+                // Fences between the contexts need GLES3
+                mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
+                mSourceSurface = new OffscreenSurface(mEglCore, 1, 1);
+                if (!(mSurfaceObject instanceof SurfaceTexture) && !(mSurfaceObject instanceof Surface)) {
+                    throw new RuntimeException("No surface or SurfaceTexture available: " + mSurfaceObject);
+                }
+                mMasterSurface = startWorker(mSurfaceObject, false);
+            } else if (mSurfaceObject instanceof SurfaceTexture) {
+                mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE);
                 mMasterSurface = new FrameswapControl(mEglCore, (SurfaceTexture) mSurfaceObject);
             } else if (mSurfaceObject instanceof Surface) {
+                mEglCore = new EglCore(null, EglCore.FLAG_RECORDABLE);
                 mMasterSurface = new FrameswapControl(mEglCore, (Surface) mSurfaceObject, false);
             } else {
                 throw new RuntimeException("No surface or SurfaceTexture available: " + mSurfaceObject);
             }
             mSurfaceObject = null; // we do not need it anymore
             mOutputSurfaces.add(mMasterSurface);
-            mMasterSurface.makeCurrent();
+            makeSourceCurrent();
             mFullFrameBlit = new FullFrameRect(
                     new Texture2dProgram(mProgramType));
             mTextureId = mFullFrameBlit.createTextureObject();
@@ -261,14 +352,44 @@ public class OutputMultiplier {
                     }
                 }
                 if (mDone) break;
-                if (mFrameBuffers.size() > 0) {
-                    while (mFrameBuffers.size() > 0) {
+                releaseRetiredWorkers();
+                if (!mFrameBuffers.isEmpty()) {
+                    while (!mFrameBuffers.isEmpty()) {
                         drawBufferSwap();
                     }
                 }  else {
                     drawFrameImmediateSwap();
                 }
             }
+            synchronized (mLock) {
+                if (!mWorkers.isEmpty() || !mRetiredWorkers.isEmpty()) {
+                    makeSourceCurrent();
+                    for (RenderWorker worker : mWorkers) {
+                        worker.quit();
+                        worker.releaseSlots();
+                    }
+                    mWorkers.clear();
+                    for (RenderWorker worker : mRetiredWorkers) {
+                        worker.releaseSlots();
+                    }
+                    mRetiredWorkers.clear();
+                }
+            }
+            if (mYuvTextures != null) {
+                makeSourceCurrent();
+                mYuvTextures.release();
+                mYuvBlit.release(true);
+                mYuvTextures = null;
+                mYuvBlit = null;
+            }
+            if (mSourceSurface != null) {
+                mSourceSurface.release();
+                mSourceSurface = null;
+            }
+            releaseEgl();
+            Log.d(TAG, "Frame pools, bitmaps: " + mBitmapPool.getAllocatedCount() + " (waits: " +
+                    mBitmapPool.getWaitCount() + "), yuv: " + mYuvPool.getAllocatedCount() +
+                    " (waits: " + mYuvPool.getWaitCount() + ")");
         }
 
         public void setString(String name) {
@@ -302,10 +423,70 @@ public class OutputMultiplier {
             return mMasterSurface;
         }
 
+        private boolean useWorkers() {
+            return mRenderWorkers != Input.RenderWorkers.off;
+        }
+
+        private void makeSourceCurrent() {
+            if (mSourceSurface != null) {
+                mSourceSurface.makeCurrent();
+            } else {
+                mMasterSurface.makeCurrent();
+            }
+        }
+
+        /**
+         * Stops the worker of a removed output, its slots are released on the renderer thread.
+         */
+        public void retireWorker(RenderWorker worker) {
+            boolean retired;
+            synchronized (mLock) {
+                retired = mWorkers.remove(worker);
+            }
+            if (!retired) {
+                // Already retired or the renderer has quit
+                return;
+            }
+            worker.quit();
+            synchronized (mLock) {
+                mRetiredWorkers.add(worker);
+            }
+            synchronized (mInputFrameLock) {
+                mInputFrameLock.notifyAll();
+            }
+        }
+
+        private void releaseRetiredWorkers() {
+            synchronized (mLock) {
+                if (mRetiredWorkers.isEmpty()) {
+                    return;
+                }
+                makeSourceCurrent();
+                for (RenderWorker worker : mRetiredWorkers) {
+                    worker.releaseSlots();
+                }
+                mRetiredWorkers.clear();
+            }
+        }
+
+        private FrameswapControl startWorker(Object surface, boolean releaseSurface) {
+            // A preview never holds back the encoders
+            boolean drop = mRenderWorkers == Input.RenderWorkers.drop || surface instanceof SurfaceTexture;
+            RenderWorker worker = new RenderWorker(mEglCore, surface, releaseSurface, drop,
+                    mName + "_" + mWorkers.size());
+            mWorkers.add(worker);
+            worker.start();
+            return worker.getOutput();
+        }
+
         public FrameswapControl addSurface(Surface surface) {
             FrameswapControl windowSurface = null;
             synchronized (mLock) {
-                windowSurface = new FrameswapControl(mEglCore, surface, true);
+                if (useWorkers()) {
+                    windowSurface = startWorker(surface, true);
+                } else {
+                    windowSurface = new FrameswapControl(mEglCore, surface, true);
+                }
 
                 mOutputSurfaces.add(windowSurface);
             }
@@ -316,7 +497,11 @@ public class OutputMultiplier {
         public FrameswapControl addSurfaceTexture(SurfaceTexture texture) {
             FrameswapControl windowSurface = null;
             synchronized (mLock) {
-                windowSurface = new FrameswapControl(mEglCore, texture);
+                if (useWorkers()) {
+                    windowSurface = startWorker(texture, false);
+                } else {
+                    windowSurface = new FrameswapControl(mEglCore, texture);
+                }
 
                 mOutputSurfaces.add(windowSurface);
             }
@@ -339,6 +524,9 @@ public class OutputMultiplier {
                 Log.d(TAG, "Skipping drawFrame after shutdown");
                 return;
             }
+            FullFrameRect blit = mFullFrameBlit;
+            int textureId = mTextureId;
+            float[] texMatrix = mTmpMatrix;
             try {
                 synchronized (mVSynchLock) {
                     BufferObject buffer = mFrameBuffers.poll();
@@ -362,34 +550,55 @@ public class OutputMultiplier {
                     }
                     try {
                         mLatestTimestampNsec = timeUs;
-                        if (buffer instanceof FrameBuffer) {
+                        int frame = (buffer instanceof FrameBuffer) ? ((FrameBuffer) buffer).mFrame : -1;
+                        if (selectOutputs(buffer.getTimestampUs(), frame) == 0) {
+                            // Decimated for every output, nothing to upload
+                            skipFrame(buffer);
+                        } else if (buffer instanceof FrameBuffer) {
                             // Draw texture
                             FrameBuffer fb = (FrameBuffer)buffer;
-                            fb.mCodec.releaseOutputBuffer(fb.mBufferId, true);
-                            mMasterSurface.makeCurrent();
+                            MediaCodec codec = fb.mCodec;
+                            int bufferId = fb.mBufferId;
+                            mFramePool.recycle(fb);
+                            codec.releaseOutputBuffer(bufferId, true);
+                            makeSourceCurrent();
                             mInputTexture.updateTexImage();
                             mInputTexture.getTransformMatrix(mTmpMatrix);
+                        } else if (buffer instanceof YuvBuffer) {
+                            // Upload the planes, the shader converts to rgb
+                            YuvBuffer yuv = (YuvBuffer) buffer;
+                            try {
+                                uploadYuv(yuv);
+                            } finally {
+                                mYuvPool.recycle(yuv);
+                            }
+                            blit = mYuvBlit;
+                            textureId = mYuvTextures.getLumaTexture();
+                            texMatrix = YuvTextures.TEX_MATRIX;
                         } else {
                             // Draw bitmap
-                            drawBitmap(((BitmapBuffer)buffer).mBitmap);
+                            BitmapBuffer bitmap = (BitmapBuffer) buffer;
+                            try {
+                                drawBitmap(bitmap.mBitmap);
+                            } finally {
+                                mBitmapPool.recycle(bitmap);
+                            }
                         }
                     } catch (IllegalStateException ise) {
                         // not important
                     }
 
                 }
-                mMasterSurface.setPresentationTime(mLatestTimestampNsec);
+                if (mMasterSurface.getWorker() == null) {
+                    mMasterSurface.setPresentationTime(mLatestTimestampNsec);
+                }
 
+                long frameReadyNs = System.nanoTime();
+                reserveSlots();
                 synchronized (mLock) {
-                    for (FrameswapControl surface : mOutputSurfaces) {
-                        if (surface.keepFrame()) {
-                            surface.makeCurrent();
-                            int width = surface.getWidth();
-                            int height = surface.getHeight();
-                            GLES20.glViewport(0, 0, width, height);
-                            mFullFrameBlit.drawFrame(mTextureId, mTmpMatrix);
-                            surface.setPresentationTime(mLatestTimestampNsec);
-                            surface.swapBuffers();
+                    for (FrameswapControl surface : mFrameOutputs) {
+                        if (mOutputSurfaces.contains(surface)) {
+                            drawOutput(surface, blit, textureId, texMatrix, frameReadyNs);
                         }
                     }
                 }
@@ -409,24 +618,21 @@ public class OutputMultiplier {
                     Log.d(TAG, "Skipping drawFrame after shutdown");
                     return;
                 }
-                mMasterSurface.makeCurrent();
+                makeSourceCurrent();
                 mInputTexture.updateTexImage();
                 mInputTexture.getTransformMatrix(mTmpMatrix);
                 mLatestTimestampNsec = mInputTexture.getTimestamp();
 
+                selectOutputs(mLatestTimestampNsec / 1000, -1);
+                long frameReadyNs = System.nanoTime();
+                reserveSlots();
                 synchronized (mLock) {
-                    for (FrameswapControl surface : mOutputSurfaces) {
+                    for (FrameswapControl surface : mFrameOutputs) {
+                        if (!mOutputSurfaces.contains(surface)) {
+                            continue;
+                        }
                         try {
-                            if (surface.keepFrame()) {
-
-                                surface.makeCurrent();
-                                int width = surface.getWidth();
-                                int height = surface.getHeight();
-                                GLES20.glViewport(0, 0, width, height);
-                                mFullFrameBlit.drawFrame(mTextureId, mTmpMatrix);
-                                surface.setPresentationTime(mLatestTimestampNsec);
-                                surface.swapBuffers();
-                            }
+                            drawOutput(surface, mFullFrameBlit, mTextureId, mTmpMatrix, frameReadyNs);
                         } catch (Exception ex) {
                             Log.e(TAG, "Exception when drawing: " + ex);
                         }
@@ -442,13 +648,84 @@ public class OutputMultiplier {
             }
         }
 
+        /**
+         * Runs the frame rate decimation of every output for the next source frame.
+         *
+         * @return number of outputs drawing the frame.
+         */
+        private int selectOutputs(long timestampUsec, int frame) {
+            mFrameOutputs.clear();
+            synchronized (mLock) {
+                for (FrameswapControl surface : mOutputSurfaces) {
+                    if (surface.keepFrame(timestampUsec, frame)) {
+                        mFrameOutputs.add(surface);
+                    }
+                }
+            }
+            return mFrameOutputs.size();
+        }
+
+        /**
+         * Waits for the slots of blocking render workers before the outputs are drawn, so the
+         * wait does not hold mLock.
+         */
+        private void reserveSlots() {
+            for (int i = 0; i < mFrameOutputs.size(); i++) {
+                RenderWorker worker = mFrameOutputs.get(i).getWorker();
+                if (worker != null) {
+                    worker.reserveSlot();
+                }
+            }
+        }
+
+        /**
+         * Hands back a source frame no output draws, a decoder buffer is released unrendered.
+         */
+        private void skipFrame(BufferObject buffer) {
+            if (buffer instanceof FrameBuffer) {
+                FrameBuffer fb = (FrameBuffer) buffer;
+                MediaCodec codec = fb.mCodec;
+                int bufferId = fb.mBufferId;
+                mFramePool.recycle(fb);
+                codec.releaseOutputBuffer(bufferId, false);
+            } else if (buffer instanceof YuvBuffer) {
+                mYuvPool.recycle((YuvBuffer) buffer);
+            } else {
+                mBitmapPool.recycle((BitmapBuffer) buffer);
+            }
+        }
+
+        /**
+         * Draws the frame to the output or, with render workers, to a slot of its worker.
+         */
+        private void drawOutput(FrameswapControl surface, FullFrameRect blit, int textureId, float[] texMatrix,
+                                long frameReadyNs) {
+            RenderWorker worker = surface.getWorker();
+            if (worker != null) {
+                RenderWorker.Slot slot = worker.obtainSlot();
+                if (slot != null) {
+                    blit.drawFrame(textureId, texMatrix);
+                    worker.queue(slot, mLatestTimestampNsec, frameReadyNs);
+                }
+                return;
+            }
+            surface.makeCurrent();
+            int width = surface.getWidth();
+            int height = surface.getHeight();
+            GLES20.glViewport(0, 0, width, height);
+            blit.drawFrame(textureId, texMatrix);
+            surface.setPresentationTime(mLatestTimestampNsec);
+            surface.swapBuffers();
+            surface.recordDraw(System.nanoTime() - frameReadyNs);
+        }
+
         public void drawBitmap(Bitmap bitmap) {
             try {
                 if (mEglCore == null) {
                     Log.d(TAG, "Skipping drawFrame after shutdown");
                     return;
                 }
-                mMasterSurface.makeCurrent();
+                makeSourceCurrent();
                 GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
                 GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
                         GLES20.GL_LINEAR);
@@ -464,6 +741,23 @@ public class OutputMultiplier {
             }
         }
 
+        private void uploadYuv(YuvBuffer buffer) {
+            makeSourceCurrent();
+            if (mYuvTextures == null || !mYuvTextures.matches(buffer)) {
+                if (mYuvTextures != null) {
+                    mYuvTextures.release();
+                    mYuvBlit.release(true);
+                }
+                Log.d(TAG, "Create yuv textures: WxH = " + buffer.mWidth + "x" + buffer.mHeight +
+                        ", interleaved: " + buffer.mInterleaved);
+                mYuvTextures = new YuvTextures(buffer.mWidth, buffer.mHeight, buffer.mInterleaved);
+                mYuvBlit = new FullFrameRect(new Texture2dProgram(buffer.mInterleaved ?
+                        Texture2dProgram.ProgramType.TEXTURE_NV12 : Texture2dProgram.ProgramType.TEXTURE_I420));
+                mYuvBlit.getProgram().setChromaTextures(mYuvTextures.getUTexture(), mYuvTextures.getVTexture());
+            }
+            mYuvTextures.upload(buffer.mData);
+        }
+
         @Override
         public void onFrameAvailable(SurfaceTexture surfaceTexture) {
             synchronized (mInputFrameLock) {
@@ -472,9 +766,10 @@ public class OutputMultiplier {
             }
         }
 
-        public void newFrameAvailableInBuffer(MediaCodec codec, int id, MediaCodec.BufferInfo info) {
+        public void newFrameAvailableInBuffer(MediaCodec codec, int id, MediaCodec.BufferInfo info, int frame) {
+            // Queued outside of the lock, the renderer does not take it while draining
+            mFrameBuffers.put(mFramePool.obtain(codec, id, info, frame));
             synchronized (mInputFrameLock) {
-                mFrameBuffers.offer(new FrameBuffer(codec, id, info));
                 frameAvailable += 1;
                 mInputFrameLock.notifyAll();
             }
@@ -487,9 +782,28 @@ public class OutputMultiplier {
             }
         }
 
-        public void newBitmapAvailable(Bitmap bitmap, long timestampUsec) {
+        public void newBitmapBufferAvailable(BitmapBuffer buffer, long timestampUsec) {
+            buffer.mTimestampUs = timestampUsec;
+            mFrameBuffers.put(buffer);
+            synchronized (mInputFrameLock) {
+                frameAvailable += 1;
+                mInputFrameLock.notifyAll();
+            }
+            if (mVsynchWait) {
+                synchronized (mFrameDrawnLock) {
+                    try {
+                        mFrameDrawnLock.wait(WAIT_TIME_SHORT_MS);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        public void newYuvBufferAvailable(YuvBuffer buffer, long timestampUsec) {
+            buffer.mTimestampUs = timestampUsec;
+            mFrameBuffers.put(buffer);
             synchronized (mInputFrameLock) {
-                mFrameBuffers.offer(new BitmapBuffer(bitmap.copy(bitmap.getConfig(), true), timestampUsec));
                 frameAvailable += 1;
                 mInputFrameLock.notifyAll();
             }
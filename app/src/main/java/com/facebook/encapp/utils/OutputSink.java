@@ -0,0 +1,19 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination for the encoded stream, follows the MediaMuxer calls used by the encoders.
+ */
+public interface OutputSink {
+    int addTrack(MediaFormat format);
+
+    void start();
+
+    void writeSampleData(int trackIndex, ByteBuffer data, MediaCodec.BufferInfo info);
+
+    void release();
+}
@@ -0,0 +1,357 @@
+package com.facebook.encapp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pure java conversion between packed raw pixel formats.
+ *
+ * Chroma interleaving and deinterleaving work on 64 bit words (four chroma pairs per
+ * iteration), yuv <-> rgba uses fixed point bt.601 limited range math. Work can optionally
+ * be split in row tiles and run on the common fork join pool.
+ *
+ * No android classes are used so the converter can be run and measured on a plain jvm.
+ */
+public class PixelFormatConverter {
+    public enum Format {
+        I420,
+        NV12,
+        NV21,
+        RGBA,
+    }
+
+    // Smallest number of rows handled by a single fork join task
+    private static final int MIN_TILE_ROWS = 32;
+    private static final long BYTE_MASK_EVEN = 0x00FF00FF00FF00FFL;
+    private static final long SHORT_MASK = 0x0000FFFF0000FFFFL;
+
+    final int mWidth;
+    final int mHeight;
+    final int mChromaWidth;
+    final int mChromaHeight;
+    boolean mParallel = false;
+    // I420 intermediate of rgba to nv12 / nv21, allocated on first use
+    private byte[] mScratch;
+
+    private interface RowTask {
+        void run(int start, int end);
+    }
+
+    public PixelFormatConverter(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = (width + 1) / 2;
+        mChromaHeight = (height + 1) / 2;
+    }
+
+    public void setParallel(boolean parallel) {
+        mParallel = parallel;
+    }
+
+    public static int frameSize(Format format, int width, int height) {
+        if (format == Format.RGBA) {
+            return width * height * 4;
+        }
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * Converts one frame from src to dst. Identical formats result in a plain copy.
+     */
+    public void convert(byte[] src, Format srcFormat, byte[] dst, Format dstFormat) {
+        if (srcFormat == dstFormat) {
+            System.arraycopy(src, 0, dst, 0, frameSize(srcFormat, mWidth, mHeight));
+            return;
+        }
+
+        switch (dstFormat) {
+            case I420:
+                if (srcFormat == Format.RGBA) {
+                    rgbaToI420(src, dst);
+                } else {
+                    System.arraycopy(src, 0, dst, 0, mWidth * mHeight);
+                    deinterleave(src, dst, srcFormat == Format.NV21);
+                }
+                break;
+            case NV12:
+            case NV21:
+                boolean swap = dstFormat == Format.NV21;
+                if (srcFormat == Format.I420) {
+                    System.arraycopy(src, 0, dst, 0, mWidth * mHeight);
+                    interleave(src, dst, swap);
+                } else if (srcFormat == Format.RGBA) {
+                    if (mScratch == null) {
+                        mScratch = new byte[frameSize(Format.I420, mWidth, mHeight)];
+                    }
+                    rgbaToI420(src, mScratch);
+                    System.arraycopy(mScratch, 0, dst, 0, mWidth * mHeight);
+                    interleave(mScratch, dst, swap);
+                } else {
+                    // nv12 <-> nv21
+                    System.arraycopy(src, 0, dst, 0, mWidth * mHeight);
+                    swapChroma(src, dst);
+                }
+                break;
+            case RGBA:
+                yuvToRgba(src, srcFormat, dst);
+                break;
+        }
+    }
+
+    /**
+     * Planar u and v to a single interleaved chroma plane (nv12, or nv21 if swap is set).
+     */
+    public void interleave(byte[] src, byte[] dst, boolean swap) {
+        final int lumaSize = mWidth * mHeight;
+        final int chromaSize = mChromaWidth * mChromaHeight;
+        final ByteBuffer in = ByteBuffer.wrap(src).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer out = ByteBuffer.wrap(dst).order(ByteOrder.LITTLE_ENDIAN);
+        final int first = lumaSize + (swap ? chromaSize : 0);
+        final int second = lumaSize + (swap ? 0 : chromaSize);
+
+        forRows(mChromaHeight, new RowTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int row = start; row < end; row++) {
+                    interleaveRow(in, first + row * mChromaWidth, in, second + row * mChromaWidth,
+                            out, lumaSize + row * mChromaWidth * 2, mChromaWidth);
+                }
+            }
+        });
+    }
+
+    /**
+     * Interleaved chroma (nv12, or nv21 if swapped is set) to planar u and v.
+     */
+    public void deinterleave(byte[] src, byte[] dst, boolean swapped) {
+        final int lumaSize = mWidth * mHeight;
+        final int chromaSize = mChromaWidth * mChromaHeight;
+        final ByteBuffer in = ByteBuffer.wrap(src).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer out = ByteBuffer.wrap(dst).order(ByteOrder.LITTLE_ENDIAN);
+        final int first = lumaSize + (swapped ? chromaSize : 0);
+        final int second = lumaSize + (swapped ? 0 : chromaSize);
+
+        forRows(mChromaHeight, new RowTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int row = start; row < end; row++) {
+                    deinterleaveRow(in, lumaSize + row * mChromaWidth * 2, out, first + row * mChromaWidth,
+                            out, second + row * mChromaWidth, mChromaWidth);
+                }
+            }
+        });
+    }
+
+    /**
+     * Interleaves count samples of a (at aOffset) and b (at bOffset) into out, four pairs per
+     * 64 bit word. The buffers must be little endian, positions are not changed.
+     */
+    public static void interleaveRow(ByteBuffer a, int aOffset, ByteBuffer b, int bOffset,
+                                     ByteBuffer out, int outOffset, int count) {
+        final int words = count / 4;
+        for (int i = 0; i < words; i++) {
+            long lo = spread(a.getInt(aOffset));
+            long hi = spread(b.getInt(bOffset));
+            out.putLong(outOffset, lo | (hi << 8));
+            aOffset += 4;
+            bOffset += 4;
+            outOffset += 8;
+        }
+        for (int i = words * 4; i < count; i++) {
+            out.put(outOffset++, a.get(aOffset++));
+            out.put(outOffset++, b.get(bOffset++));
+        }
+    }
+
+    /**
+     * Splits count interleaved pairs of in into a and b, the inverse of interleaveRow().
+     */
+    public static void deinterleaveRow(ByteBuffer in, int inOffset, ByteBuffer a, int aOffset,
+                                       ByteBuffer b, int bOffset, int count) {
+        final int words = count / 4;
+        for (int i = 0; i < words; i++) {
+            long word = in.getLong(inOffset);
+            a.putInt(aOffset, compact(word & BYTE_MASK_EVEN));
+            b.putInt(bOffset, compact((word >>> 8) & BYTE_MASK_EVEN));
+            inOffset += 8;
+            aOffset += 4;
+            bOffset += 4;
+        }
+        for (int i = words * 4; i < count; i++) {
+            a.put(aOffset++, in.get(inOffset++));
+            b.put(bOffset++, in.get(inOffset++));
+        }
+    }
+
+    /**
+     * Swaps the byte order of each chroma pair, i.e. nv12 <-> nv21.
+     */
+    public void swapChroma(byte[] src, byte[] dst) {
+        final int lumaSize = mWidth * mHeight;
+        final int rowLength = mChromaWidth * 2;
+        final ByteBuffer in = ByteBuffer.wrap(src).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer out = ByteBuffer.wrap(dst).order(ByteOrder.LITTLE_ENDIAN);
+        final int words = rowLength / 8;
+
+        forRows(mChromaHeight, new RowTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int row = start; row < end; row++) {
+                    int o = lumaSize + row * rowLength;
+                    for (int i = 0; i < words; i++) {
+                        long word = in.getLong(o);
+                        out.putLong(o, ((word & BYTE_MASK_EVEN) << 8) | ((word >>> 8) & BYTE_MASK_EVEN));
+                        o += 8;
+                    }
+                    for (int i = words * 8; i < rowLength; i += 2) {
+                        byte tmp = src[o];
+                        dst[o] = src[o + 1];
+                        dst[o + 1] = tmp;
+                        o += 2;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * I420, NV12 or NV21 to RGBA (bt.601, limited range).
+     */
+    public void yuvToRgba(byte[] src, Format srcFormat, byte[] dst) {
+        final int lumaSize = mWidth * mHeight;
+        final int chromaSize = mChromaWidth * mChromaHeight;
+        final boolean planar = srcFormat == Format.I420;
+        // Offsets and pixel step for u and v
+        final int uBase = lumaSize + ((srcFormat == Format.NV21) ? 1 : 0);
+        final int vBase = lumaSize + (planar ? chromaSize : ((srcFormat == Format.NV21) ? 0 : 1));
+        final int step = planar ? 1 : 2;
+        final int chromaStride = planar ? mChromaWidth : mChromaWidth * 2;
+
+        forRows(mHeight, new RowTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int row = start; row < end; row++) {
+                    int y = row * mWidth;
+                    int o = y * 4;
+                    int c = (row >> 1) * chromaStride;
+                    for (int x = 0; x < mWidth; x++) {
+                        int ci = c + (x >> 1) * step;
+                        int yy = ((src[y++] & 0xff) - 16) * 298;
+                        int u = (src[uBase + ci] & 0xff) - 128;
+                        int v = (src[vBase + ci] & 0xff) - 128;
+                        dst[o++] = clamp((yy + 409 * v + 128) >> 8);
+                        dst[o++] = clamp((yy - 100 * u - 208 * v + 128) >> 8);
+                        dst[o++] = clamp((yy + 516 * u + 128) >> 8);
+                        dst[o++] = (byte) 0xff;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * RGBA to I420 (bt.601, limited range), chroma is the average of each 2x2 block.
+     */
+    public void rgbaToI420(byte[] src, byte[] dst) {
+        final int lumaSize = mWidth * mHeight;
+        final int chromaSize = mChromaWidth * mChromaHeight;
+
+        forRows(mChromaHeight, new RowTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int crow = start; crow < end; crow++) {
+                    for (int row = crow * 2; row < Math.min(crow * 2 + 2, mHeight); row++) {
+                        int i = row * mWidth * 4;
+                        int y = row * mWidth;
+                        for (int x = 0; x < mWidth; x++) {
+                            int r = src[i] & 0xff;
+                            int g = src[i + 1] & 0xff;
+                            int b = src[i + 2] & 0xff;
+                            dst[y++] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+                            i += 4;
+                        }
+                    }
+                    int u = lumaSize + crow * mChromaWidth;
+                    int v = u + chromaSize;
+                    int row0 = crow * 2;
+                    int row1 = Math.min(row0 + 1, mHeight - 1);
+                    for (int cx = 0; cx < mChromaWidth; cx++) {
+                        int x0 = cx * 2;
+                        int x1 = Math.min(x0 + 1, mWidth - 1);
+                        int r = 0;
+                        int g = 0;
+                        int b = 0;
+                        int p;
+                        p = (row0 * mWidth + x0) * 4;
+                        r += src[p] & 0xff; g += src[p + 1] & 0xff; b += src[p + 2] & 0xff;
+                        p = (row0 * mWidth + x1) * 4;
+                        r += src[p] & 0xff; g += src[p + 1] & 0xff; b += src[p + 2] & 0xff;
+                        p = (row1 * mWidth + x0) * 4;
+                        r += src[p] & 0xff; g += src[p + 1] & 0xff; b += src[p + 2] & 0xff;
+                        p = (row1 * mWidth + x1) * 4;
+                        r += src[p] & 0xff; g += src[p + 1] & 0xff; b += src[p + 2] & 0xff;
+                        r = (r + 2) >> 2;
+                        g = (g + 2) >> 2;
+                        b = (b + 2) >> 2;
+                        dst[u++] = clamp(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+                        dst[v++] = clamp(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+                    }
+                }
+            }
+        });
+    }
+
+    private void forRows(int rows, RowTask task) {
+        if (!mParallel || rows < 2 * MIN_TILE_ROWS) {
+            task.run(0, rows);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new RowTile(task, 0, rows));
+    }
+
+    private static class RowTile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final RowTask mTask;
+        final int mStart;
+        final int mEnd;
+
+        RowTile(RowTask task, int start, int end) {
+            mTask = task;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart < 2 * MIN_TILE_ROWS) {
+                mTask.run(mStart, mEnd);
+                return;
+            }
+            int middle = (mStart + mEnd) >>> 1;
+            invokeAll(new RowTile(mTask, mStart, middle), new RowTile(mTask, middle, mEnd));
+        }
+    }
+
+    // Four bytes in the low 32 bits to every other byte of a 64 bit word
+    private static long spread(int value) {
+        long x = value & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & SHORT_MASK;
+        x = (x | (x << 8)) & BYTE_MASK_EVEN;
+        return x;
+    }
+
+    // Inverse of spread
+    private static int compact(long x) {
+        x = (x | (x >>> 8)) & SHORT_MASK;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
+    private static byte clamp(int value) {
+        if (value < 0) return 0;
+        if (value > 255) return (byte) 255;
+        return (byte) value;
+    }
+}
@@ -0,0 +1,176 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads raw frames ahead of the encoder on a separate thread.
+ *
+ * A bounded pool of frame buffers is filled by the wrapped reader. The encoder thread
+ * only copies an already read frame into the codec buffer. Every time the encoder has
+ * to wait for the reader an underrun is counted, a high count means the run is i/o bound.
+ */
+public class PrefetchFileReader extends FileReader {
+    private static final String TAG = "encapp.prefetch";
+    private static final long POLL_TIME_MS = 100;
+
+    final FileReader mSource;
+    final int mFrameSize;
+    final ArrayBlockingQueue<ByteBuffer> mFree;
+    final ArrayBlockingQueue<ByteBuffer> mFilled;
+    // Put on the filled queue when the reader reaches the end of the file
+    final ByteBuffer mEndOfFile = ByteBuffer.allocate(0);
+    // Put on the free queue to stop the reader, it is not interrupted since that closes the
+    // file channel of the wrapped reader
+    final ByteBuffer mStop = ByteBuffer.allocate(0);
+    final int mBufferCount;
+    Thread mReaderThread;
+    volatile boolean mRunning = false;
+    boolean mEndReached = false;
+    boolean mOpen = false;
+
+    // Written by the encoder thread, read by the statistics
+    volatile int mFrames = 0;
+    volatile int mUnderruns = 0;
+    volatile long mUnderrunWaitNs = 0;
+
+    public PrefetchFileReader(FileReader source, int bufferCount, int frameSize) {
+        mSource = source;
+        mFrameSize = frameSize;
+        mBufferCount = Math.max(bufferCount, 1);
+        // Room for the stop marker
+        mFree = new ArrayBlockingQueue<>(mBufferCount + 1);
+        mFilled = new ArrayBlockingQueue<>(mBufferCount + 1);
+        for (int i = 0; i < mBufferCount; i++) {
+            mFree.add(ByteBuffer.allocateDirect(frameSize));
+        }
+    }
+
+    @Override
+    public boolean openFile(String name) {
+        synchronized (this) {
+            if (!mSource.openFile(name)) {
+                return false;
+            }
+            mEndReached = false;
+            mOpen = true;
+            mRunning = true;
+            mReaderThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readFrames();
+                }
+            }, "prefetch");
+            mReaderThread.start();
+        }
+        return true;
+    }
+
+    @Override
+    public void closeFile() {
+        synchronized (this) {
+            mRunning = false;
+            if (mReaderThread != null) {
+                mFree.offer(mStop);
+                try {
+                    mReaderThread.join();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                mReaderThread = null;
+                // The reader may have stopped before taking the marker
+                for (int i = mFree.size(); i > 0; i--) {
+                    ByteBuffer buffer = mFree.poll();
+                    if (buffer != mStop) {
+                        mFree.offer(buffer);
+                    }
+                }
+            }
+            ByteBuffer buffer;
+            while ((buffer = mFilled.poll()) != null) {
+                if (buffer != mEndOfFile) {
+                    mFree.offer(buffer);
+                }
+            }
+            if (mOpen) {
+                mSource.closeFile();
+                mOpen = false;
+            }
+        }
+    }
+
+    @Override
+    public int fillBuffer(ByteBuffer buffer, int size) {
+        if (!mOpen) return 0;
+        if (mEndReached) return -1;
+        ByteBuffer frame = mFilled.poll();
+        if (frame == null) {
+            mUnderruns++;
+            long start = System.nanoTime();
+            try {
+                while (frame == null && mRunning) {
+                    frame = mFilled.poll(POLL_TIME_MS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interrupted while waiting for frame");
+            }
+            mUnderrunWaitNs += System.nanoTime() - start;
+            if (frame == null) {
+                return 0;
+            }
+        }
+        if (frame == mEndOfFile) {
+            mEndReached = true;
+            return -1;
+        }
+
+        int read = Math.min(frame.remaining(), buffer.remaining());
+        frame.limit(frame.position() + read);
+        buffer.put(frame);
+        mFrames++;
+        mFree.offer(frame);
+        return read;
+    }
+
+    private void readFrames() {
+        try {
+            while (mRunning) {
+                ByteBuffer frame = mFree.take();
+                if (frame == mStop) {
+                    break;
+                }
+                frame.clear();
+                int read = mSource.fillBuffer(frame, mFrameSize);
+                if (read <= 0) {
+                    mFree.offer(frame);
+                    mFilled.put(mEndOfFile);
+                    break;
+                }
+                frame.position(0);
+                frame.limit(read);
+                mFilled.put(frame);
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Reader stopped");
+        }
+    }
+
+    public int getBufferCount() {
+        return mBufferCount;
+    }
+
+    public int getFrameCount() {
+        return mFrames;
+    }
+
+    public int getUnderrunCount() {
+        return mUnderruns;
+    }
+
+    public long getUnderrunWaitNs() {
+        return mUnderrunWaitNs;
+    }
+}
@@ -0,0 +1,255 @@
+package com.facebook.encapp.utils;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+import android.view.Surface;
+
+import com.facebook.encapp.utils.grafika.EglCore;
+import com.facebook.encapp.utils.grafika.FullFrameRect;
+import com.facebook.encapp.utils.grafika.GlUtil;
+import com.facebook.encapp.utils.grafika.Texture2dProgram;
+
+/**
+ * Draws one output surface of an OutputMultiplier on its own thread and EGL context.
+ *
+ * The renderer draws each source frame into one of a few slot textures (at the output size)
+ * and queues it, the worker draws the slot to its surface and swaps. Contexts share objects
+ * with the renderer, fences keep the renderer and the worker from touching a slot the other
+ * one still uses. When no slot is free the frame is dropped for this output or, if blocking,
+ * the renderer waits for a slot in reserveSlot().
+ *
+ * reserveSlot(), obtainSlot(), queue() and releaseSlots() are called by the renderer thread
+ * only.
+ */
+public class RenderWorker extends Thread {
+    private static final String TAG = "encapp.renderworker";
+    private static final int SLOT_COUNT = 2;
+    private static final long IDLE_WAIT_NS = 100000000L;  // 100 ms
+    // Longest wait for a slot when blocking, the frame is dropped after that
+    private static final long BLOCK_WAIT_NS = 1000000000L;  // 1 sec
+    private static final long JOIN_WAIT_MS = 3000;
+
+    private final EglCore mEglCore;
+    private final FrameswapControl mOutput;
+    private final boolean mDropWhenFull;
+    // Renderer to worker
+    private final SpscRingBuffer<Slot> mQueued = new SpscRingBuffer<>(SLOT_COUNT);
+    // Worker to renderer
+    private final SpscRingBuffer<Slot> mFree = new SpscRingBuffer<>(SLOT_COUNT);
+    private final Slot[] mSlots = new Slot[SLOT_COUNT];
+    // Taken by reserveSlot() for the next obtainSlot(), renderer thread only
+    private Slot mReserved = null;
+    private final boolean mUseFences;
+    private volatile boolean mDone = false;
+
+    static class Slot {
+        int mTexture;
+        int mFramebuffer;
+        int mWidth;
+        int mHeight;
+        // Fence after the last use by the other thread, 0 if none
+        long mFence = 0;
+        long mPresentationTimeNs;
+        // When the source frame was ready in the renderer
+        long mQueuedNs;
+    }
+
+    /**
+     * @param sharedCore the renderer context, the source textures are shared with it.
+     * @param surface Surface or SurfaceTexture of the output.
+     */
+    public RenderWorker(EglCore sharedCore, Object surface, boolean releaseSurface, boolean dropWhenFull,
+                        String name) {
+        super("RenderWorker " + name);
+        mEglCore = new EglCore(sharedCore.getContext(), EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
+        if (surface instanceof SurfaceTexture) {
+            mOutput = new FrameswapControl(mEglCore, (SurfaceTexture) surface);
+        } else {
+            mOutput = new FrameswapControl(mEglCore, (Surface) surface, releaseSurface);
+        }
+        mOutput.setWorker(this);
+        mDropWhenFull = dropWhenFull;
+        // Sync objects need GLES3 in both contexts, otherwise glFinish() is used
+        mUseFences = sharedCore.getGlVersion() >= 3 && mEglCore.getGlVersion() >= 3;
+    }
+
+    public FrameswapControl getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * When blocking, waits for a free slot for the next obtainSlot(). Call it without holding
+     * locks, the wait can be long.
+     */
+    void reserveSlot() {
+        if (mDropWhenFull || mReserved != null || mSlots[0] == null) {
+            // Slots are created free by the first obtainSlot()
+            return;
+        }
+        Slot slot = mFree.poll();
+        long deadline = System.nanoTime() + BLOCK_WAIT_NS;
+        while (slot == null && !mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            mFree.await(remaining);
+            slot = mFree.poll();
+        }
+        mReserved = slot;
+    }
+
+    /**
+     * @return a free slot bound as framebuffer for drawing or null if the frame is dropped,
+     * it does not wait. The renderer context must be current.
+     */
+    Slot obtainSlot() {
+        int width = mOutput.getWidth();
+        int height = mOutput.getHeight();
+        if (mSlots[0] == null) {
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                mSlots[i] = createSlot(width, height);
+                mFree.offer(mSlots[i]);
+            }
+        }
+        Slot slot = mReserved;
+        mReserved = null;
+        if (slot == null) {
+            slot = mFree.poll();
+        }
+        if (slot == null) {
+            mOutput.recordDrop();
+            return null;
+        }
+        waitFence(slot);
+        if (slot.mWidth != width || slot.mHeight != height) {
+            resizeSlot(slot, width, height);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, slot.mFramebuffer);
+        GLES20.glViewport(0, 0, slot.mWidth, slot.mHeight);
+        return slot;
+    }
+
+    /**
+     * Hands a slot drawn by the renderer to the worker.
+     */
+    void queue(Slot slot, long presentationTimeNs, long frameReadyNs) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        slot.mFence = createFence();
+        slot.mPresentationTimeNs = presentationTimeNs;
+        slot.mQueuedNs = frameReadyNs;
+        mQueued.offer(slot);
+    }
+
+    public void quit() {
+        mDone = true;
+        mQueued.wake();
+        try {
+            join(JOIN_WAIT_MS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deletes the slots after quit(), renderer thread with the renderer context current.
+     */
+    void releaseSlots() {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            Slot slot = mSlots[i];
+            if (slot == null) {
+                continue;
+            }
+            if (slot.mFence != 0) {
+                GLES30.glDeleteSync(slot.mFence);
+            }
+            GLES20.glDeleteFramebuffers(1, new int[]{slot.mFramebuffer}, 0);
+            GLES20.glDeleteTextures(1, new int[]{slot.mTexture}, 0);
+            mSlots[i] = null;
+        }
+        mReserved = null;
+    }
+
+    @Override
+    public void run() {
+        mOutput.makeCurrent();
+        FullFrameRect blit = new FullFrameRect(new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D));
+        while (!mDone) {
+            Slot slot = mQueued.poll();
+            if (slot == null) {
+                mQueued.await(IDLE_WAIT_NS);
+                continue;
+            }
+            try {
+                waitFence(slot);
+                GLES20.glViewport(0, 0, mOutput.getWidth(), mOutput.getHeight());
+                blit.drawFrame(slot.mTexture, GlUtil.IDENTITY_MATRIX);
+                slot.mFence = createFence();
+                mOutput.setPresentationTime(slot.mPresentationTimeNs);
+                mOutput.swapBuffers();
+                mOutput.recordDraw(System.nanoTime() - slot.mQueuedNs);
+            } catch (Exception ex) {
+                Log.e(TAG, "Exception when drawing: " + ex.getMessage());
+            }
+            mFree.offer(slot);
+        }
+        blit.release(true);
+        mOutput.releaseEglSurface();
+        mEglCore.release();
+        Log.d(TAG, getName() + " done, frames: " + mOutput.getDrawnFrames() +
+                ", dropped: " + mOutput.getDroppedFrames());
+    }
+
+    private long createFence() {
+        if (mUseFences) {
+            long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            GLES20.glFlush();
+            return fence;
+        }
+        GLES20.glFinish();
+        return 0;
+    }
+
+    private static void waitFence(Slot slot) {
+        if (slot.mFence != 0) {
+            GLES30.glWaitSync(slot.mFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+            GLES30.glDeleteSync(slot.mFence);
+            slot.mFence = 0;
+        }
+    }
+
+    private static Slot createSlot(int width, int height) {
+        Slot slot = new Slot();
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        slot.mTexture = ids[0];
+        GLES20.glGenFramebuffers(1, ids, 0);
+        slot.mFramebuffer = ids[0];
+        resizeSlot(slot, width, height);
+        return slot;
+    }
+
+    private static void resizeSlot(Slot slot, int width, int height) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, slot.mTexture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, slot.mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, slot.mTexture, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Slot framebuffer not complete: " + status);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        slot.mWidth = width;
+        slot.mHeight = height;
+        GlUtil.checkGlError("create slot");
+    }
+}
@@ -0,0 +1,161 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaCodec;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.facebook.encapp.proto.DataValueType;
+import com.facebook.encapp.proto.DecoderRuntime;
+import com.facebook.encapp.proto.Runtime;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runtime settings compiled once into a frame indexed schedule.
+ *
+ * All values are parsed up front, parameters due at the same frame are merged into one
+ * Bundle and drops are kept in a bitset. Lookups are expected for increasing frame numbers
+ * and only move a cursor forward, going backwards (e.g. a restart) falls back to a binary search.
+ */
+public class RuntimeSchedule {
+    private static final String TAG = "encapp.schedule";
+
+    private long[] mParamFrames = new long[0];
+    private Bundle[] mParams = new Bundle[0];
+    private int mParamIndex = 0;
+
+    private long[] mRateFrames = new long[0];
+    private float[] mRates = new float[0];
+    private int mRateIndex = 0;
+
+    private final BitSet mDrops = new BitSet();
+
+    public RuntimeSchedule(Runtime runtime) {
+        TreeMap<Long, Bundle> params = new TreeMap<>();
+        // The first bitrate listed for a frame is used
+        for (Runtime.VideoBitrateParameter bitrate : runtime.getVideoBitrateList()) {
+            Bundle bundle = getBundle(params, bitrate.getFramenum());
+            if (!bundle.containsKey(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE)) {
+                bundle.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE,
+                        TestDefinitionHelper.magnitudeToInt(bitrate.getBitrate()));
+            }
+        }
+        for (Long sync : runtime.getRequestSyncList()) {
+            getBundle(params, sync).putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, sync.intValue());
+        }
+        for (Runtime.Parameter param : runtime.getParameterList()) {
+            addParameter(getBundle(params, param.getFramenum()), param.getKey(), param.getType(), param.getValue());
+        }
+        setParameters(params);
+
+        TreeMap<Long, Float> rates = new TreeMap<>();
+        for (Runtime.DynamicFramerateParameter rate : runtime.getDynamicFramerateList()) {
+            if (!rates.containsKey(rate.getFramenum())) {
+                rates.put(rate.getFramenum(), rate.getFramerate());
+            }
+        }
+        mRateFrames = new long[rates.size()];
+        mRates = new float[rates.size()];
+        int index = 0;
+        for (Map.Entry<Long, Float> entry : rates.entrySet()) {
+            mRateFrames[index] = entry.getKey();
+            mRates[index++] = entry.getValue();
+        }
+
+        for (Long drop : runtime.getDropList()) {
+            if (drop >= 0 && drop < Integer.MAX_VALUE) {
+                mDrops.set(drop.intValue());
+            }
+        }
+        Log.d(TAG, "Compiled runtime schedule, parameter frames: " + mParams.length +
+                ", framerate changes: " + mRates.length + ", drops: " + mDrops.cardinality());
+    }
+
+    public RuntimeSchedule(DecoderRuntime runtime) {
+        TreeMap<Long, Bundle> params = new TreeMap<>();
+        for (DecoderRuntime.Parameter param : runtime.getParameterList()) {
+            addParameter(getBundle(params, param.getFramenum()), param.getKey(), param.getType(), param.getValue());
+        }
+        setParameters(params);
+        Log.d(TAG, "Compiled decoder runtime schedule, parameter frames: " + mParams.length);
+    }
+
+    /**
+     * @return parameters due at the frame or null if there are none.
+     */
+    public Bundle getParameters(long frame) {
+        mParamIndex = seek(mParamFrames, mParamIndex, frame);
+        if (mParamIndex < mParamFrames.length && mParamFrames[mParamIndex] == frame) {
+            return mParams[mParamIndex];
+        }
+        return null;
+    }
+
+    /**
+     * @return the new frame rate starting at the frame or -1 if it does not change.
+     */
+    public float getFramerate(long frame) {
+        mRateIndex = seek(mRateFrames, mRateIndex, frame);
+        if (mRateIndex < mRateFrames.length && mRateFrames[mRateIndex] == frame) {
+            return mRates[mRateIndex];
+        }
+        return -1;
+    }
+
+    public boolean isDropped(long frame) {
+        return frame >= 0 && frame < Integer.MAX_VALUE && mDrops.get((int) frame);
+    }
+
+    // Index of the first entry at or after the frame
+    private static int seek(long[] frames, int index, long frame) {
+        if (index > 0 && frames[index - 1] >= frame) {
+            int found = Arrays.binarySearch(frames, frame);
+            return (found >= 0) ? found : -(found + 1);
+        }
+        while (index < frames.length && frames[index] < frame) {
+            index++;
+        }
+        return index;
+    }
+
+    private void setParameters(TreeMap<Long, Bundle> params) {
+        mParamFrames = new long[params.size()];
+        mParams = new Bundle[params.size()];
+        int index = 0;
+        for (Map.Entry<Long, Bundle> entry : params.entrySet()) {
+            mParamFrames[index] = entry.getKey();
+            mParams[index++] = entry.getValue();
+        }
+    }
+
+    private static Bundle getBundle(TreeMap<Long, Bundle> params, long frame) {
+        Bundle bundle = params.get(frame);
+        if (bundle == null) {
+            bundle = new Bundle();
+            params.put(frame, bundle);
+        }
+        return bundle;
+    }
+
+    private static void addParameter(Bundle bundle, String key, DataValueType type, String value) {
+        switch (type.getNumber()) {
+            case DataValueType.floatType_VALUE:
+                bundle.putFloat(key, Float.parseFloat(value));
+                break;
+            case DataValueType.intType_VALUE:
+                bundle.putInt(key, TestDefinitionHelper.magnitudeToInt(value));
+                break;
+            case DataValueType.longType_VALUE:
+                bundle.putLong(key, Long.parseLong(value));
+                break;
+            case DataValueType.stringType_VALUE:
+                bundle.putString(key, value);
+                break;
+            default:
+                ///Should not be here
+        }
+    }
+}
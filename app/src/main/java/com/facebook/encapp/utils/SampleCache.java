@@ -0,0 +1,131 @@
+package com.facebook.encapp.utils;
+
+import android.media.MediaExtractor;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compressed samples of a clip, demuxed once into off-heap memory.
+ *
+ * Payloads are stored back to back in one direct buffer, offset, size, pts and flags of
+ * every sample in arrays. Playing the clip again is a copy out of the cache, there is no
+ * seek or file i/o at the loop boundary.
+ */
+public class SampleCache {
+    private static final String TAG = "encapp.samplecache";
+    private static final int INITIAL_SAMPLES = 1024;
+    private static final int INITIAL_BYTES = 4 * 1024 * 1024;
+
+    private ByteBuffer mData;
+    private int[] mOffsets = new int[INITIAL_SAMPLES];
+    private int[] mSizes = new int[INITIAL_SAMPLES];
+    private long[] mPts = new long[INITIAL_SAMPLES];
+    private int[] mFlags = new int[INITIAL_SAMPLES];
+    private int mCount = 0;
+
+    private SampleCache() {
+    }
+
+    /**
+     * Reads all samples of the selected track from the current position.
+     *
+     * @return null if the clip does not fit in the budget, the extractor is then rewound.
+     */
+    public static SampleCache load(MediaExtractor extractor, long budgetBytes) {
+        long start = System.nanoTime();
+        long budget = Math.min(budgetBytes, Integer.MAX_VALUE);
+        SampleCache cache = new SampleCache();
+        cache.mData = ByteBuffer.allocateDirect((int) Math.min(INITIAL_BYTES, budget));
+        while (true) {
+            long sampleSize = extractor.getSampleSize();
+            if (sampleSize < 0) {
+                break;
+            }
+            int offset = cache.mData.position();
+            if (sampleSize > budget || !cache.reserve((int) sampleSize, budget)) {
+                Log.w(TAG, "Clip does not fit in " + budget + " bytes, not cached");
+                extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                return null;
+            }
+            ByteBuffer data = cache.mData;
+            data.limit(data.capacity());
+            int size = extractor.readSampleData(data, offset);
+            if (size < 0) {
+                break;
+            }
+            cache.add(offset, size, extractor.getSampleTime(), extractor.getSampleFlags());
+            data.limit(data.capacity());
+            data.position(offset + size);
+            extractor.advance();
+        }
+        if (cache.mCount == 0) {
+            Log.w(TAG, "No samples, not cached");
+            extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            return null;
+        }
+        cache.mData.flip();
+        Log.d(TAG, "Cached " + cache.mCount + " samples, " + cache.mData.limit() + " bytes in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+        return cache;
+    }
+
+    public int getSampleCount() {
+        return mCount;
+    }
+
+    public long getSampleTime(int sample) {
+        return mPts[sample];
+    }
+
+    public int getSampleFlags(int sample) {
+        return mFlags[sample];
+    }
+
+    /**
+     * Copies the sample to the start of the buffer.
+     *
+     * @return size of the sample.
+     */
+    public int readSampleData(int sample, ByteBuffer buffer) {
+        ByteBuffer src = mData.duplicate();
+        src.limit(mOffsets[sample] + mSizes[sample]);
+        src.position(mOffsets[sample]);
+        buffer.clear();
+        buffer.put(src);
+        buffer.flip();
+        return mSizes[sample];
+    }
+
+    // Makes room for another sample of the size, payloads are moved if the buffer grows
+    private boolean reserve(int size, long budget) {
+        if (mCount == mOffsets.length) {
+            int samples = mCount * 2;
+            mOffsets = Arrays.copyOf(mOffsets, samples);
+            mSizes = Arrays.copyOf(mSizes, samples);
+            mPts = Arrays.copyOf(mPts, samples);
+            mFlags = Arrays.copyOf(mFlags, samples);
+        }
+        if (mData.remaining() >= size) {
+            return true;
+        }
+        long capacity = Math.min(Math.max((long) mData.capacity() * 2, mData.position() + size), budget);
+        if (capacity < mData.position() + size) {
+            return false;
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect((int) capacity);
+        mData.flip();
+        data.put(mData);
+        mData = data;
+        return true;
+    }
+
+    private void add(int offset, int size, long pts, int flags) {
+        mOffsets[mCount] = offset;
+        mSizes[mCount] = size;
+        mPts[mCount] = pts;
+        mFlags[mCount] = flags;
+        mCount++;
+    }
+}
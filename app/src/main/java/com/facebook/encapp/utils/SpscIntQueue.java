@@ -0,0 +1,123 @@
+package com.facebook.encapp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue of ints (e.g. codec buffer indices) for one producer thread and
+ * one consumer thread.
+ *
+ * Same hand-off as SpscRingBuffer without boxing: the consumer parks when the queue is
+ * empty and is unparked by the producer.
+ */
+public class SpscIntQueue {
+    public static final int EMPTY = -1;
+
+    private final int[] mBuffer;
+    private final int mMask;
+    // Written by the producer only
+    private final AtomicLong mTail = new AtomicLong(0);
+    // Written by the consumer only
+    private final AtomicLong mHead = new AtomicLong(0);
+    private long mHeadCache = 0;
+    private long mTailCache = 0;
+
+    private volatile Thread mConsumer;
+    private volatile boolean mConsumerParked = false;
+    // Producer side metrics
+    private int mMaxDepth = 0;
+
+    public SpscIntQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mBuffer = new int[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Adds a value, producer thread only.
+     *
+     * @return false if the queue is full.
+     */
+    public boolean offer(int value) {
+        long tail = mTail.get();
+        if (tail - mHeadCache >= mBuffer.length) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache >= mBuffer.length) {
+                return false;
+            }
+        }
+        mBuffer[(int) (tail & mMask)] = value;
+        mTail.set(tail + 1);
+
+        // The head cache is only refreshed when the queue looks full, read the real head
+        int depth = (int) (tail + 1 - mHead.get());
+        if (depth > mMaxDepth) {
+            mMaxDepth = depth;
+        }
+        if (mConsumerParked) {
+            Thread consumer = mConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a value, waiting for space while the queue is full. Producer thread only.
+     */
+    public void put(int value) {
+        while (!offer(value)) {
+            LockSupport.parkNanos(50000);
+        }
+    }
+
+    /**
+     * Removes the oldest value, consumer thread only.
+     *
+     * @return the value or EMPTY.
+     */
+    public int poll() {
+        long head = mHead.get();
+        if (head >= mTailCache) {
+            mTailCache = mTail.get();
+            if (head >= mTailCache) {
+                return EMPTY;
+            }
+        }
+        int value = mBuffer[(int) (head & mMask)];
+        mHead.set(head + 1);
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    /**
+     * Parks the consumer until data is available, wake() is called or the timeout expires.
+     */
+    public void await(long timeoutNs) {
+        mConsumer = Thread.currentThread();
+        mConsumerParked = true;
+        // Re-check after publishing the parked state, the producer may just have added data
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, timeoutNs);
+        }
+        mConsumerParked = false;
+    }
+
+    /**
+     * Wakes a parked consumer without adding data, e.g. when stopping.
+     */
+    public void wake() {
+        Thread consumer = mConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+}
@@ -0,0 +1,175 @@
+package com.facebook.encapp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * The consumer parks when the queue is empty and is unparked by the producer, no locks
+ * or monitor notifications are involved. Queue depth and the latency from the producer
+ * signaling until the consumer runs again are measured for the stats output.
+ */
+public class SpscRingBuffer<T> {
+    private final Object[] mBuffer;
+    private final int mMask;
+    // Written by the producer only
+    private final AtomicLong mTail = new AtomicLong(0);
+    // Written by the consumer only
+    private final AtomicLong mHead = new AtomicLong(0);
+    private long mHeadCache = 0;
+    private long mTailCache = 0;
+
+    private volatile Thread mConsumer;
+    private volatile boolean mConsumerParked = false;
+    private volatile long mSignalTimeNs = 0;
+
+    // Producer side metrics
+    private long mOffers = 0;
+    private long mDepthSum = 0;
+    private int mMaxDepth = 0;
+    private long mFullWaits = 0;
+    // Consumer side metrics
+    private long mWakeups = 0;
+    private long mWakeLatencySumNs = 0;
+    private long mMaxWakeLatencyNs = 0;
+
+    public SpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mBuffer = new Object[size];
+        mMask = size - 1;
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * Adds an element, producer thread only.
+     *
+     * @return false if the queue is full.
+     */
+    public boolean offer(T element) {
+        long tail = mTail.get();
+        if (tail - mHeadCache >= mBuffer.length) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache >= mBuffer.length) {
+                return false;
+            }
+        }
+        mBuffer[(int) (tail & mMask)] = element;
+        mTail.set(tail + 1);
+
+        // The head cache is only refreshed when the queue looks full, read the real head
+        int depth = (int) (tail + 1 - mHead.get());
+        mOffers++;
+        mDepthSum += depth;
+        if (depth > mMaxDepth) {
+            mMaxDepth = depth;
+        }
+
+        if (mConsumerParked) {
+            Thread consumer = mConsumer;
+            if (consumer != null) {
+                mSignalTimeNs = System.nanoTime();
+                LockSupport.unpark(consumer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds an element, waiting for space while the queue is full. Producer thread only.
+     */
+    public void put(T element) {
+        if (offer(element)) {
+            return;
+        }
+        mFullWaits++;
+        while (!offer(element)) {
+            LockSupport.parkNanos(50000);
+        }
+    }
+
+    /**
+     * Removes the oldest element, consumer thread only.
+     *
+     * @return the element or null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long head = mHead.get();
+        if (head >= mTailCache) {
+            mTailCache = mTail.get();
+            if (head >= mTailCache) {
+                return null;
+            }
+        }
+        int index = (int) (head & mMask);
+        T element = (T) mBuffer[index];
+        mBuffer[index] = null;
+        mHead.set(head + 1);
+        return element;
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    /**
+     * Parks the consumer until data is available, wake() is called or the timeout expires.
+     */
+    public void await(long timeoutNs) {
+        mConsumer = Thread.currentThread();
+        mConsumerParked = true;
+        // Re-check after publishing the parked state, the producer may just have added data
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, timeoutNs);
+        }
+        mConsumerParked = false;
+        long signal = mSignalTimeNs;
+        if (signal != 0) {
+            mSignalTimeNs = 0;
+            long latency = System.nanoTime() - signal;
+            mWakeups++;
+            mWakeLatencySumNs += latency;
+            if (latency > mMaxWakeLatencyNs) {
+                mMaxWakeLatencyNs = latency;
+            }
+        }
+    }
+
+    /**
+     * Wakes a parked consumer without adding data, e.g. when stopping.
+     */
+    public void wake() {
+        Thread consumer = mConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    public double getMeanDepth() {
+        return (mOffers > 0) ? (double) mDepthSum / mOffers : 0;
+    }
+
+    public long getFullWaits() {
+        return mFullWaits;
+    }
+
+    public long getWakeups() {
+        return mWakeups;
+    }
+
+    public double getMeanWakeLatencyUs() {
+        return (mWakeups > 0) ? mWakeLatencySumNs / 1000.0 / mWakeups : 0;
+    }
+
+    public double getMaxWakeLatencyUs() {
+        return mMaxWakeLatencyNs / 1000.0;
+    }
+}
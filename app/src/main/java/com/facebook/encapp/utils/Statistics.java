@@ -3,6 +3,7 @@ package com.facebook.encapp.utils;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.Size;
 
 import com.facebook.encapp.proto.Configure;
@@ -26,11 +27,17 @@ import java.util.Vector;
 
 public class Statistics {
     final static String TAG = "encapp.statistics";
+    // Frames to preallocate bookkeeping for when the test does not limit the length
+    final static int DEFAULT_FRAME_ESTIMATE = 1800;
+    final static int MAX_FRAME_ESTIMATE = 100000;
     public static String NA = "na";
     private final String mId;
     private final String mDesc;
     private final ArrayList<FrameInfo> mEncodingFrames;
-    private final HashMap<Long, FrameInfo> mDecodingFrames;
+    private final LongSparseArray<FrameInfo> mDecodingFrames;
+    // Preallocated frame records, decoding and encoding are started on different threads
+    private final FrameRecords mEncodingRecords;
+    private final FrameRecords mDecodingRecords;
     int mEncodingProcessingFrames = 0;
     Test mTest;
     Date mStartDate;
@@ -44,11 +51,26 @@ public class Statistics {
     private MediaFormat mDecoderMediaFormat;
     private String mDecoderName = "";
     private String mAppVersion = "";
+    private PrefetchFileReader mPrefetcher;
+    private SpscRingBuffer<?> mWriterQueue;
+    private FramePacer mPacer;
+    private FrameswapControl mRenderOutput;
+    // Last frame passed to stopEncodingFrame
+    private FrameInfo mLastEncodedFrame;
+    private long mStreamChecksum = -1;
+    private long mFeederIdleNs = -1;
+    private long mFeederBusyNs = 0;
+    private int mFeederMaxQueued = 0;
+    private long mSetupTimeNs = -1;
+    private boolean mCodecReused = false;
 
     public Statistics(String desc, Test test) {
         mDesc = desc;
-        mEncodingFrames = new ArrayList<>(20);
-        mDecodingFrames = new HashMap<>(20);
+        int frames = estimateFrameCount(test);
+        mEncodingFrames = new ArrayList<>(frames);
+        mDecodingFrames = new LongSparseArray<>(frames);
+        mEncodingRecords = new FrameRecords(frames);
+        mDecodingRecords = new FrameRecords(frames);
         mTest = test;
         mStartDate = new Date();
         mId = "encapp_" + UUID.randomUUID().toString();
@@ -93,15 +115,70 @@ public class Statistics {
         mLoad.stop();
     }
 
+    private static int estimateFrameCount(Test test) {
+        int frames = DEFAULT_FRAME_ESTIMATE;
+        if (test.getInput().hasPlayoutFrames() && test.getInput().getPlayoutFrames() > 0) {
+            frames = test.getInput().getPlayoutFrames();
+        } else if (test.getInput().hasStoptimeSec() && test.getInput().getStoptimeSec() > 0) {
+            float fps = (test.getInput().hasFramerate()) ? test.getInput().getFramerate() : 30;
+            frames = (int) (test.getInput().getStoptimeSec() * fps) + 1;
+        }
+        return Math.min(frames, MAX_FRAME_ESTIMATE);
+    }
+
+    /**
+     * Frame records handed out in order so no allocation happens per frame. Not thread safe,
+     * each instance must only be used by one thread.
+     */
+    private static class FrameRecords {
+        private FrameInfo[] mFrames;
+        private int mUsed = 0;
+
+        FrameRecords(int count) {
+            mFrames = allocate(count);
+        }
+
+        private static FrameInfo[] allocate(int count) {
+            FrameInfo[] frames = new FrameInfo[count];
+            for (int i = 0; i < count; i++) {
+                frames[i] = new FrameInfo(0);
+            }
+            return frames;
+        }
+
+        FrameInfo obtain(long pts, int originalFrame) {
+            if (mUsed == mFrames.length) {
+                Log.d(TAG, "Frame estimate exceeded, allocate " + mFrames.length + " more frames");
+                mFrames = allocate(mFrames.length);
+                mUsed = 0;
+            }
+            FrameInfo frame = mFrames[mUsed];
+            // The record now belongs to the frame lists
+            mFrames[mUsed++] = null;
+            frame.reset(pts, originalFrame);
+            return frame;
+        }
+    }
+
     public void startEncodingFrame(long pts, int originalFrame) {
-        FrameInfo frame = new FrameInfo(pts, originalFrame);
+        FrameInfo frame = mEncodingRecords.obtain(pts, originalFrame);
         frame.start();
-        mEncodingFrames.add(frame);
-        mEncodingProcessingFrames += 1;
+        // Frames are stopped on the codec output thread
+        synchronized (mEncodingFrames) {
+            mEncodingFrames.add(frame);
+            mEncodingProcessingFrames += 1;
+        }
     }
 
     public void stopEncodingFrame(long pts, long size, boolean isIFrame) {
+        synchronized (mEncodingFrames) {
+            stopEncodingFrameLocked(pts, size, isIFrame);
+        }
+    }
+
+    private void stopEncodingFrameLocked(long pts, long size, boolean isIFrame) {
         FrameInfo frame = getClosestMatch(pts);
+        mLastEncodedFrame = frame;
         if (frame != null) {
             frame.stop();
             frame.setSize(size);
@@ -133,15 +210,24 @@ public class Statistics {
 
 
     public void startDecodingFrame(long pts, long size, int flags) {
-        FrameInfo frame = new FrameInfo(pts);
+        FrameInfo frame = mDecodingRecords.obtain(pts, -1);
         frame.setSize(size);
         frame.setFlags(flags);
         frame.start();
-        mDecodingFrames.put(Long.valueOf(pts), frame);
+        // Frames are stopped on the codec output thread
+        synchronized (mDecodingFrames) {
+            mDecodingFrames.put(pts, frame);
+        }
+    }
+
+    private FrameInfo getDecodingFrame(long pts) {
+        synchronized (mDecodingFrames) {
+            return mDecodingFrames.get(pts);
+        }
     }
 
     public void stopDecodingFrame(long pts) {
-        FrameInfo frame = mDecodingFrames.get(Long.valueOf(pts));
+        FrameInfo frame = getDecodingFrame(pts);
         if (frame != null) {
             frame.stop();
         }
@@ -200,6 +286,61 @@ public class Statistics {
         mDecoderName = decoderName;
     }
 
+    public void setInputPrefetcher(PrefetchFileReader prefetcher) {
+        mPrefetcher = prefetcher;
+    }
+
+    public void setWriterQueue(SpscRingBuffer<?> queue) {
+        mWriterQueue = queue;
+    }
+
+    public void setFramePacer(FramePacer pacer) {
+        mPacer = pacer;
+    }
+
+    public void setRenderOutput(FrameswapControl output) {
+        mRenderOutput = output;
+    }
+
+    /**
+     * Sets the checksum of the frame last passed to stopEncodingFrame.
+     */
+    public void setEncodedFrameChecksum(long checksum) {
+        if (mLastEncodedFrame != null) {
+            mLastEncodedFrame.setChecksum(checksum);
+        }
+    }
+
+    public void setDecodedFrameChecksum(long pts, long checksum) {
+        FrameInfo frame = getDecodingFrame(pts);
+        if (frame != null) {
+            frame.setChecksum(checksum);
+        }
+    }
+
+    /**
+     * Time the decoder input feeder waited for input buffers and time it spent filling them.
+     *
+     * @param maxQueued most input buffers waiting for data at once, high if the decoder starved.
+     */
+    public void setDecoderFeeder(long idleNs, long busyNs, int maxQueued) {
+        mFeederIdleNs = idleNs;
+        mFeederBusyNs = busyNs;
+        mFeederMaxQueued = maxQueued;
+    }
+
+    public void setStreamChecksum(long checksum) {
+        mStreamChecksum = checksum;
+    }
+
+    /**
+     * Time from getting the codec until it is started, not part of the processing time.
+     */
+    public void setCodecSetup(long setupTimeNs, boolean reused) {
+        mSetupTimeNs = setupTimeNs;
+        mCodecReused = reused;
+    }
+
 
     private JSONObject getSettingsFromMediaFormat(MediaFormat format) {
         JSONObject mediaformat = new JSONObject();
@@ -308,6 +449,10 @@ public class Statistics {
             Log.d(TAG, "log app version: " + mAppVersion);
             json.put("encapp_version", mAppVersion);
             json.put("proctime", getProcessingTime());
+            if (mSetupTimeNs >= 0) {
+                json.put("setup_time_ms", mSetupTimeNs / 1000000.0);
+                json.put("codec_reused", mCodecReused);
+            }
             json.put("framecount", getEncodedFrameCount());
             json.put("encodedfile", mEncodedfile);
             String[] tmp = mTest.getInput().getFilepath().split("/");
@@ -343,19 +488,87 @@ public class Statistics {
                 }
                 obj.put("starttime", info.getStartTime());
                 obj.put("stoptime", info.getStopTime());
+                if (info.getChecksum() >= 0) {
+                    obj.put("crc32", info.getChecksum());
+                }
                 jsonArray.put(obj);
             }
             json.put("frames", jsonArray);
+            if (mStreamChecksum >= 0) {
+                json.put("stream_crc32", mStreamChecksum);
+            }
+
+            if (mPrefetcher != null) {
+                JSONObject prefetch = new JSONObject();
+                prefetch.put("buffers", mPrefetcher.getBufferCount());
+                prefetch.put("frames", mPrefetcher.getFrameCount());
+                prefetch.put("underruns", mPrefetcher.getUnderrunCount());
+                prefetch.put("underrun_wait_ms", mPrefetcher.getUnderrunWaitNs() / 1000000.0);
+                json.put("input_prefetch", prefetch);
+            }
+
+            if (mWriterQueue != null) {
+                JSONObject dataWriter = new JSONObject();
+                dataWriter.put("queue_size", mWriterQueue.capacity());
+                dataWriter.put("max_depth", mWriterQueue.getMaxDepth());
+                dataWriter.put("mean_depth", mWriterQueue.getMeanDepth());
+                dataWriter.put("full_waits", mWriterQueue.getFullWaits());
+                dataWriter.put("wakeups", mWriterQueue.getWakeups());
+                dataWriter.put("mean_wake_latency_us", mWriterQueue.getMeanWakeLatencyUs());
+                dataWriter.put("max_wake_latency_us", mWriterQueue.getMaxWakeLatencyUs());
+                json.put("data_writer", dataWriter);
+            }
+
+            if (mPacer != null && mPacer.getFrameCount() > 0) {
+                JSONObject pacing = new JSONObject();
+                pacing.put("frames", mPacer.getFrameCount());
+                pacing.put("mean_error_us", mPacer.getMeanErrorUs());
+                pacing.put("max_error_us", mPacer.getMaxErrorUs());
+                pacing.put("resyncs", mPacer.getResyncCount());
+                JSONArray histogram = new JSONArray();
+                long[] buckets = mPacer.getHistogram();
+                for (int i = 0; i < buckets.length; i++) {
+                    JSONObject bucket = new JSONObject();
+                    // Last bucket is open ended
+                    bucket.put("max_us", (i < FramePacer.BUCKET_LIMITS_US.length) ?
+                            FramePacer.BUCKET_LIMITS_US[i] : -1);
+                    bucket.put("count", buckets[i]);
+                    histogram.put(bucket);
+                }
+                pacing.put("error_histogram", histogram);
+                json.put("realtime_pacing", pacing);
+            }
+
+            if (mFeederIdleNs >= 0) {
+                JSONObject feeder = new JSONObject();
+                long total = mFeederIdleNs + mFeederBusyNs;
+                feeder.put("idle_ms", mFeederIdleNs / 1000000.0);
+                feeder.put("busy_ms", mFeederBusyNs / 1000000.0);
+                feeder.put("busy_ratio", (total > 0) ? (double) mFeederBusyNs / total : 0);
+                feeder.put("max_queued_buffers", mFeederMaxQueued);
+                json.put("decoder_feeder", feeder);
+            }
+
+            if (mRenderOutput != null) {
+                JSONObject output = new JSONObject();
+                output.put("worker", mRenderOutput.getWorker() != null);
+                output.put("frames", mRenderOutput.getDrawnFrames());
+                output.put("dropped", mRenderOutput.getDroppedFrames());
+                output.put("decimated", mRenderOutput.getDecimatedFrames());
+                output.put("mean_draw_latency_ms", mRenderOutput.getMeanDrawLatencyMs());
+                output.put("max_draw_latency_ms", mRenderOutput.getMaxDrawLatencyMs());
+                json.put("render_output", output);
+            }
 
             if (mDecodingFrames.size() > 0) {
 
-                allFrames = new ArrayList<>(mDecodingFrames.values());
-                Collections.sort(allFrames, compareByPts);
+                // Already ordered by pts
                 counter = 1;
                 jsonArray = new JSONArray();
 
                 obj = null;
-                for (FrameInfo info : allFrames) {
+                for (int i = 0; i < mDecodingFrames.size(); i++) {
+                    FrameInfo info = mDecodingFrames.valueAt(i);
                     long proc_time = info.getProcessingTime();
                     if (proc_time > 0) {
                         obj = new JSONObject();
@@ -367,6 +580,9 @@ public class Statistics {
                         obj.put("proctime", info.getProcessingTime());
                         obj.put("starttime", info.getStartTime());
                         obj.put("stoptime", info.getStopTime());
+                        if (info.getChecksum() >= 0) {
+                            obj.put("crc32", info.getChecksum());
+                        }
                         jsonArray.put(obj);
                     }
                 }
@@ -0,0 +1,159 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Base for sinks writing a raw stream to a file.
+ *
+ * Samples are copied into large direct batch buffers on the calling (codec) thread, full
+ * batches are written through a FileChannel by a separate writer thread.
+ */
+public abstract class StreamFileWriter implements OutputSink {
+    private static final String TAG = "encapp.streamwriter";
+    private static final int BATCH_SIZE = 4 * 1024 * 1024;
+    private static final int BATCH_COUNT = 3;
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final String mPath;
+    private final RandomAccessFile mFile;
+    protected final FileChannel mChannel;
+    private final ArrayBlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<>(BATCH_COUNT);
+    private final ArrayBlockingQueue<ByteBuffer> mFilled = new ArrayBlockingQueue<>(BATCH_COUNT + 1);
+    private final Thread mWriter;
+    private ByteBuffer mBatch;
+    private volatile boolean mFailed = false;
+    private boolean mReleased = false;
+    protected long mBytesWritten = 0;
+
+    public StreamFileWriter(String path) throws IOException {
+        mPath = path;
+        mFile = new RandomAccessFile(path, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            mFree.add(allocate(BATCH_SIZE));
+        }
+        mWriter = new Thread(this::writeBatches, "stream writer");
+        mWriter.start();
+    }
+
+    /**
+     * Called after all data is written, before the file is closed.
+     */
+    protected void finish() throws IOException {
+    }
+
+    /**
+     * @return the current batch with room for at least the given number of bytes.
+     */
+    protected ByteBuffer reserve(int bytes) {
+        if (mBatch != null && mBatch.remaining() >= bytes) {
+            return mBatch;
+        }
+        submit();
+        if (bytes > BATCH_SIZE) {
+            // Larger than a batch, written on its own and not reused
+            mBatch = allocate(bytes);
+            return mBatch;
+        }
+        try {
+            mBatch = mFree.take();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted waiting for a batch buffer");
+            mBatch = allocate(BATCH_SIZE);
+        }
+        return mBatch;
+    }
+
+    /**
+     * Copies size bytes starting at offset of the data into the stream.
+     */
+    protected void put(ByteBuffer data, int offset, int size) {
+        ByteBuffer batch = reserve(size);
+        ByteBuffer src = data.duplicate();
+        src.limit(offset + size);
+        src.position(offset);
+        batch.put(src);
+        mBytesWritten += size;
+    }
+
+    @Override
+    public void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        submit();
+        try {
+            mFilled.put(END_OF_STREAM);
+            mWriter.join();
+            if (!mFailed) {
+                finish();
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted waiting for the writer");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to finish " + mPath + ": " + e.getMessage());
+        } finally {
+            try {
+                mChannel.close();
+                mFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Log.d(TAG, "Wrote " + mBytesWritten + " bytes to " + mPath);
+    }
+
+    private void submit() {
+        if (mBatch == null) {
+            return;
+        }
+        mBatch.flip();
+        try {
+            mFilled.put(mBatch);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted submitting a batch");
+        }
+        mBatch = null;
+    }
+
+    private void writeBatches() {
+        while (true) {
+            ByteBuffer batch;
+            try {
+                batch = mFilled.take();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Writer interrupted");
+                return;
+            }
+            if (batch == END_OF_STREAM) {
+                return;
+            }
+            try {
+                while (batch.hasRemaining() && !mFailed) {
+                    mChannel.write(batch);
+                }
+            } catch (IOException e) {
+                // Keep consuming batches so the codec thread does not block
+                Log.e(TAG, "Failed to write " + mPath + ": " + e.getMessage());
+                mFailed = true;
+            }
+            if (batch.capacity() == BATCH_SIZE) {
+                batch.clear();
+                mFree.offer(batch);
+            }
+        }
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,232 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+import com.facebook.encapp.proto.Input;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Generates deterministic raw frames in memory instead of reading a file.
+ *
+ * The source is selected with a file path like
+ * synthetic://moving_gradient?complexity=50&motion=4&frames=300&seed=1
+ *
+ * patterns: moving_gradient, checkerboard
+ * complexity: 0-100, amount of fine detail (noise) added to the pattern
+ * motion: pixels the pattern moves per frame
+ * frames: number of frames before end of stream is signaled (one loop)
+ * seed: seed for the detail noise
+ *
+ * A periodic pattern is rendered once when the source is opened, every frame is then a
+ * set of bulk row copies from that pattern at the current offset.
+ */
+public class SyntheticFrameReader extends FileReader {
+    private static final String TAG = "encapp.synthetic";
+    public static final String SCHEME = "synthetic://";
+    // Pattern period in luma pixels, must be a power of two
+    private static final int PERIOD = 256;
+
+    final int mWidth;
+    final int mHeight;
+    final int mChromaWidth;
+    final int mChromaHeight;
+    final boolean mInterleaved;
+
+    String mPatternName = "moving_gradient";
+    int mComplexity = 25;
+    int mMotion = 4;
+    int mFrames = 300;
+    long mSeed = 1;
+
+    byte[] mLuma;
+    byte[] mChromaU;
+    byte[] mChromaV;
+    int mLumaStride;
+    int mChromaStride;
+    int mFrame = 0;
+    boolean mOpen = false;
+
+    public SyntheticFrameReader(int width, int height, Input.PixFmt pixFmt) {
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = (width + 1) / 2;
+        mChromaHeight = (height + 1) / 2;
+        mInterleaved = pixFmt == Input.PixFmt.nv12;
+    }
+
+    public static boolean isSynthetic(String name) {
+        return name != null && name.startsWith(SCHEME);
+    }
+
+    @Override
+    public boolean openFile(String name) {
+        synchronized (this) {
+            if (!isSynthetic(name)) {
+                Log.e(TAG, "Not a synthetic source: " + name);
+                return false;
+            }
+            mFrame = 0;
+            if (mLuma == null) {
+                try {
+                    parse(name.substring(SCHEME.length()));
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Failed to parse synthetic source: " + name + ", " + e.getMessage());
+                    return false;
+                }
+                render();
+            }
+            mOpen = true;
+        }
+        return true;
+    }
+
+    @Override
+    public void closeFile() {
+        synchronized (this) {
+            mOpen = false;
+        }
+    }
+
+    @Override
+    public int fillBuffer(ByteBuffer buffer, int size) {
+        synchronized (this) {
+            if (!mOpen) return 0;
+            if (mFrame >= mFrames) {
+                return -1;
+            }
+            int frameSize = mWidth * mHeight + 2 * mChromaWidth * mChromaHeight;
+            if (buffer.remaining() < frameSize) {
+                Log.e(TAG, "Buffer too small: " + buffer.remaining() + " < " + frameSize);
+                return 0;
+            }
+
+            // Keep the offsets even so luma and chroma stay aligned
+            int dx = (mFrame * mMotion) & (PERIOD - 2);
+            int dy = ((mFrame * mMotion) / 2) & (PERIOD - 2);
+            for (int row = 0; row < mHeight; row++) {
+                buffer.put(mLuma, (row + dy) * mLumaStride + dx, mWidth);
+            }
+            int cdx = dx / 2;
+            int cdy = dy / 2;
+            if (mInterleaved) {
+                for (int row = 0; row < mChromaHeight; row++) {
+                    buffer.put(mChromaU, (row + cdy) * mChromaStride + cdx * 2, mChromaWidth * 2);
+                }
+            } else {
+                for (int row = 0; row < mChromaHeight; row++) {
+                    buffer.put(mChromaU, (row + cdy) * mChromaStride + cdx, mChromaWidth);
+                }
+                for (int row = 0; row < mChromaHeight; row++) {
+                    buffer.put(mChromaV, (row + cdy) * mChromaStride + cdx, mChromaWidth);
+                }
+            }
+            mFrame++;
+            return frameSize;
+        }
+    }
+
+    private void parse(String spec) {
+        int query = spec.indexOf('?');
+        if (query >= 0) {
+            String[] params = spec.substring(query + 1).split("&");
+            spec = spec.substring(0, query);
+            for (String param : params) {
+                int eq = param.indexOf('=');
+                if (eq <= 0) continue;
+                String key = param.substring(0, eq);
+                String value = param.substring(eq + 1);
+                switch (key) {
+                    case "complexity":
+                        mComplexity = Math.max(0, Math.min(100, Integer.parseInt(value)));
+                        break;
+                    case "motion":
+                        mMotion = Math.abs(Integer.parseInt(value));
+                        break;
+                    case "frames":
+                        mFrames = Integer.parseInt(value);
+                        break;
+                    case "seed":
+                        mSeed = Long.parseLong(value);
+                        break;
+                    default:
+                        Log.w(TAG, "Unknown synthetic parameter: " + key);
+                }
+            }
+        }
+        if (spec.length() > 0) {
+            mPatternName = spec;
+        }
+        Log.d(TAG, "Synthetic source: " + mPatternName + ", complexity: " + mComplexity +
+                ", motion: " + mMotion + ", frames: " + mFrames + ", seed: " + mSeed);
+    }
+
+    private void render() {
+        Random random = new Random(mSeed);
+        int amplitude = mComplexity * 127 / 100;
+        byte[] noise = new byte[PERIOD * PERIOD];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (byte) ((amplitude > 0) ? random.nextInt(2 * amplitude + 1) - amplitude : 0);
+        }
+        boolean checkerboard = mPatternName.equals("checkerboard");
+        if (!checkerboard && !mPatternName.equals("moving_gradient")) {
+            Log.w(TAG, "Unknown pattern: " + mPatternName + ", use moving_gradient");
+        }
+
+        // Pattern is periodic, one extra period in each direction covers all offsets
+        mLumaStride = mWidth + PERIOD;
+        int lumaRows = mHeight + PERIOD;
+        mLuma = new byte[mLumaStride * lumaRows];
+        for (int y = 0; y < lumaRows; y++) {
+            int py = y & (PERIOD - 1);
+            int offset = y * mLumaStride;
+            for (int x = 0; x < mLumaStride; x++) {
+                int px = x & (PERIOD - 1);
+                int value;
+                if (checkerboard) {
+                    value = (((px >> 5) + (py >> 5)) & 1) == 0 ? 48 : 208;
+                } else {
+                    value = triangle(px + py);
+                }
+                mLuma[offset + x] = clamp(value + noise[py * PERIOD + px]);
+            }
+        }
+
+        int chromaPeriod = PERIOD / 2;
+        int chromaColumns = mChromaWidth + chromaPeriod;
+        int chromaRows = mChromaHeight + chromaPeriod;
+        mChromaStride = (mInterleaved) ? chromaColumns * 2 : chromaColumns;
+        mChromaU = new byte[mChromaStride * chromaRows];
+        mChromaV = (mInterleaved) ? null : new byte[mChromaStride * chromaRows];
+        for (int y = 0; y < chromaRows; y++) {
+            int py = y & (chromaPeriod - 1);
+            int offset = y * mChromaStride;
+            for (int x = 0; x < chromaColumns; x++) {
+                int px = x & (chromaPeriod - 1);
+                int detail = noise[(py * 2) * PERIOD + px * 2] / 2;
+                byte u = clamp(64 + triangle(px * 2) / 2 + detail);
+                byte v = clamp(64 + triangle(py * 2) / 2 - detail);
+                if (mInterleaved) {
+                    mChromaU[offset + x * 2] = u;
+                    mChromaU[offset + x * 2 + 1] = v;
+                } else {
+                    mChromaU[offset + x] = u;
+                    mChromaV[offset + x] = v;
+                }
+            }
+        }
+    }
+
+    // 0..255..0 over one period
+    private static int triangle(int t) {
+        t &= (PERIOD - 1);
+        return (t < PERIOD / 2) ? t * 2 : (PERIOD - 1 - t) * 2;
+    }
+
+    private static byte clamp(int value) {
+        if (value < 0) return 0;
+        if (value > 255) return (byte) 255;
+        return (byte) value;
+    }
+}
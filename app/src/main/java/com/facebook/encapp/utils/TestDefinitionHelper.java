@@ -2,12 +2,14 @@ package com.facebook.encapp.utils;
 
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Environment;
 import android.util.Log;
 import android.util.Size;
 
 import com.facebook.encapp.proto.Configure;
 import com.facebook.encapp.proto.DataValueType;
 import com.facebook.encapp.proto.Input;
+import com.facebook.encapp.proto.Ladder;
 import com.facebook.encapp.proto.Test;
 
 
@@ -108,6 +110,37 @@ public class TestDefinitionHelper {
         return builder.build();
     }
 
+    /**
+     * Creates the test of a ladder rung, the rung settings replace those of the configure.
+     *
+     * @param index rung number, used in the description when the rung has none.
+     */
+    public static Test getLadderRungTest(Test test, Ladder.Rung rung, int index) {
+        Configure.Builder config = test.getConfigure().toBuilder();
+        if (rung.hasResolution()) {
+            config.setResolution(rung.getResolution());
+        }
+        if (rung.hasBitrate()) {
+            config.setBitrate(rung.getBitrate());
+        }
+        if (rung.hasFramerate()) {
+            config.setFramerate(rung.getFramerate());
+        }
+        if (rung.hasCodec() && !rung.getCodec().equals(config.getCodec())) {
+            // Looked up again by the encoder
+            config.setCodec(rung.getCodec());
+            config.setMime("");
+        }
+        String description = (rung.hasDescription()) ? rung.getDescription() :
+                test.getCommon().getDescription() + " [rung " + index + "]";
+        Test.Builder builder = test.toBuilder();
+        builder.setCommon(test.getCommon().toBuilder().setDescription(description));
+        builder.setConfigure(config);
+        builder.clearLadder();
+        builder.clearParallel();
+        return builder.build();
+    }
+
     public static Test updateInputSettings(Test test, MediaFormat format) {
         Test.Builder builder = test.toBuilder();
         Input.Builder input = builder.getInput().toBuilder();
@@ -137,10 +170,45 @@ public class TestDefinitionHelper {
 
 
 
+    /**
+     * @return the path of an input file on the device, file names are looked up in the
+     * external storage directory.
+     */
+    public static String resolveFilePath(String path) {
+        if (SyntheticFrameReader.isSynthetic(path)) {
+            return path;
+        }
+        if (path.startsWith(Environment.getExternalStorageDirectory().getPath())) {
+            return path;
+        }
+
+        int last_dir = path.lastIndexOf('/');
+        if (last_dir == -1) {
+            return Environment.getExternalStorageDirectory().getPath() + "/" + path;
+        }
+
+        return Environment.getExternalStorageDirectory().getPath() + "/" + path.substring(last_dir);
+    }
+
     public static Test checkAnUpdateBasicSettings(Test test) {
         // Make sure we have the most basic settings well defined
         Size res;
         Input.Builder input = test.getInput().toBuilder();
+        if (Y4mFileReader.isY4m(input.getFilepath())) {
+            // The stream header is the authority on geometry and frame rate
+            Y4mFileReader y4m = Y4mFileReader.readHeader(resolveFilePath(input.getFilepath()));
+            if (y4m != null) {
+                String resolution = y4m.getWidth() + "x" + y4m.getHeight();
+                if (input.hasResolution() && !input.getResolution().equals(resolution)) {
+                    Log.w(TAG, "Input resolution " + input.getResolution() + " does not match y4m header, use " + resolution);
+                }
+                input.setResolution(resolution);
+                if (y4m.getFramerate() > 0) {
+                    input.setFramerate(y4m.getFramerate());
+                }
+                input.setPixFmt(Input.PixFmt.yuv420p);
+            }
+        }
         if (!input.hasResolution()) {
             input.setResolution("1280x720");
         }
@@ -0,0 +1,278 @@
+package com.facebook.encapp.utils;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Reads raw frames from a yuv4mpeg2 (y4m) file.
+ *
+ * Geometry and frame rate come from the stream header. Frame data is located by index,
+ * when all frame markers are plain "FRAME" the offset of a frame is computed directly,
+ * otherwise the markers are indexed once when the file is opened (no frame data is read).
+ * Only 8-bit 4:2:0 content is supported.
+ */
+public class Y4mFileReader extends FileReader {
+    private static final String TAG = "encapp.y4m";
+    private static final String MAGIC = "YUV4MPEG2";
+    private static final String FRAME_MARKER = "FRAME";
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    String mName;
+    RandomAccessFile mRaf;
+    FileChannel mChannel;
+    int mWidth = -1;
+    int mHeight = -1;
+    float mFramerate = -1;
+    String mColorspace = "420jpeg";
+    int mFrameSize;
+    long mFirstFrameOffset;
+    // Distance between frames if all markers have the same length, else -1
+    long mFrameStride = -1;
+    // Offset of the data of each frame when the markers differ in length
+    long[] mFrameOffsets;
+    int mFrameCount = 0;
+    int mFrame = 0;
+
+    public Y4mFileReader() {
+    }
+
+    public static boolean isY4m(String name) {
+        return name != null && name.toLowerCase(Locale.US).endsWith(".y4m");
+    }
+
+    @Override
+    public boolean openFile(String name) {
+        synchronized (this) {
+            try {
+                Log.d(TAG, "Open file: " + name);
+                mRaf = new RandomAccessFile(name, "r");
+                mChannel = mRaf.getChannel();
+                // When looping the same file the header and frame index are kept
+                if (!name.equals(mName) || mFrameCount == 0) {
+                    mName = null;
+                    if (!parseHeader() || !indexFrames()) {
+                        closeFile();
+                        return false;
+                    }
+                    mName = name;
+                }
+                mFrame = 0;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open file: " + name + ", " + e.getMessage());
+                e.printStackTrace();
+                closeFile();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void closeFile() {
+        try {
+            synchronized (this) {
+                Log.d(TAG, "Close file");
+                if (mChannel != null) {
+                    mChannel.close();
+                    mChannel = null;
+                }
+                if (mRaf != null) {
+                    mRaf.close();
+                    mRaf = null;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public int fillBuffer(ByteBuffer buffer, int size) {
+        synchronized (this) {
+            if (mChannel == null) return 0;
+            if (mFrame >= mFrameCount) {
+                return -1;
+            }
+            int len = Math.min(Math.min(size, mFrameSize), buffer.remaining());
+            long offset = getFrameDataOffset(mFrame);
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + len);
+            int read = 0;
+            try {
+                while (read < len) {
+                    int count = mChannel.read(buffer, offset + read);
+                    if (count < 0) break;
+                    read += count;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read frame " + mFrame + ": " + e.getMessage());
+                e.printStackTrace();
+                return 0;
+            } finally {
+                buffer.limit(limit);
+            }
+            mFrame++;
+            return read;
+        }
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public float getFramerate() {
+        return mFramerate;
+    }
+
+    private long getFrameDataOffset(int frame) {
+        if (mFrameStride > 0) {
+            return mFirstFrameOffset + frame * mFrameStride;
+        }
+        return mFrameOffsets[frame];
+    }
+
+    private boolean parseHeader() throws IOException {
+        String header = readLine(0);
+        if (header == null || !header.startsWith(MAGIC)) {
+            Log.e(TAG, "Not a y4m file, header: " + header);
+            return false;
+        }
+        for (String token : header.split(" ")) {
+            if (token.length() < 2) continue;
+            String value = token.substring(1);
+            switch (token.charAt(0)) {
+                case 'W':
+                    mWidth = Integer.parseInt(value);
+                    break;
+                case 'H':
+                    mHeight = Integer.parseInt(value);
+                    break;
+                case 'F':
+                    String[] ratio = value.split(":");
+                    float num = Float.parseFloat(ratio[0]);
+                    float den = (ratio.length > 1) ? Float.parseFloat(ratio[1]) : 1;
+                    if (den > 0) {
+                        mFramerate = num / den;
+                    }
+                    break;
+                case 'C':
+                    mColorspace = value;
+                    break;
+                default:
+                    // Interlacing, aspect ratio and comments are not used
+            }
+        }
+        if (mWidth <= 0 || mHeight <= 0) {
+            Log.e(TAG, "Missing geometry in header: " + header);
+            return false;
+        }
+        if (!mColorspace.startsWith("420") || mColorspace.contains("p1")) {
+            Log.e(TAG, "Unsupported colorspace: " + mColorspace);
+            return false;
+        }
+        mFrameSize = mWidth * mHeight + 2 * ((mWidth + 1) / 2) * ((mHeight + 1) / 2);
+        mFirstFrameOffset = header.length() + 1;
+        return true;
+    }
+
+    private boolean indexFrames() throws IOException {
+        long fileSize = mChannel.size();
+        String marker = readLine(mFirstFrameOffset);
+        if (marker == null) {
+            mFrameCount = 0;
+            mFrameStride = 1;
+            return true;
+        }
+        if (!marker.startsWith(FRAME_MARKER)) {
+            Log.e(TAG, "Missing frame marker");
+            return false;
+        }
+        long stride = marker.length() + 1 + mFrameSize;
+        long payload = fileSize - mFirstFrameOffset;
+        if (marker.equals(FRAME_MARKER) && payload % stride == 0) {
+            mFrameStride = stride;
+            mFrameCount = (int) (payload / stride);
+            // Point at the data, not the marker
+            mFirstFrameOffset += marker.length() + 1;
+            mFrameOffsets = null;
+            Log.d(TAG, "Fixed frame stride, frames: " + mFrameCount);
+            return true;
+        }
+
+        // Frame parameters present, index the markers
+        mFrameStride = -1;
+        long[] offsets = new long[(int) Math.max(payload / (mFrameSize + 6), 1) + 1];
+        int count = 0;
+        long position = mFirstFrameOffset;
+        while (position < fileSize) {
+            marker = readLine(position);
+            if (marker == null || !marker.startsWith(FRAME_MARKER)) {
+                break;
+            }
+            long data = position + marker.length() + 1;
+            if (data + mFrameSize > fileSize) {
+                break;
+            }
+            if (count == offsets.length) {
+                long[] grown = new long[offsets.length * 2];
+                System.arraycopy(offsets, 0, grown, 0, count);
+                offsets = grown;
+            }
+            offsets[count++] = data;
+            position = data + mFrameSize;
+        }
+        mFrameOffsets = offsets;
+        mFrameCount = count;
+        Log.d(TAG, "Indexed frames: " + mFrameCount);
+        return true;
+    }
+
+    private String readLine(long position) throws IOException {
+        ByteBuffer line = ByteBuffer.allocate(MAX_LINE_LENGTH);
+        int read = mChannel.read(line, position);
+        if (read <= 0) {
+            return null;
+        }
+        byte[] bytes = line.array();
+        for (int i = 0; i < read; i++) {
+            if (bytes[i] == '\n') {
+                return new String(bytes, 0, i, StandardCharsets.US_ASCII);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the stream header only.
+     *
+     * @return a reader holding the header information or null if the file can not be parsed.
+     */
+    public static Y4mFileReader readHeader(String name) {
+        Y4mFileReader reader = new Y4mFileReader();
+        boolean ok = false;
+        try {
+            reader.mRaf = new RandomAccessFile(name, "r");
+            reader.mChannel = reader.mRaf.getChannel();
+            ok = reader.parseHeader();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read header: " + name + ", " + e.getMessage());
+        } finally {
+            reader.closeFile();
+        }
+        return (ok) ? reader : null;
+    }
+}
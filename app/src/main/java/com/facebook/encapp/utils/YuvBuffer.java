@@ -0,0 +1,60 @@
+package com.facebook.encapp.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Raw yuv 4:2:0 frame (planar or nv12) for upload as textures by the OutputMultiplier.
+ */
+public class YuvBuffer implements BufferObject {
+    public final ByteBuffer mData;
+    public final int mWidth;
+    public final int mHeight;
+    public final boolean mInterleaved;
+    public long mTimestampUs;
+
+    public YuvBuffer(int width, int height, boolean interleaved) {
+        mWidth = width;
+        mHeight = height;
+        mInterleaved = interleaved;
+        mData = ByteBuffer.allocateDirect(getFrameSize(width, height));
+    }
+
+    public static int getFrameSize(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public boolean matches(int width, int height, boolean interleaved) {
+        return mWidth == width && mHeight == height && mInterleaved == interleaved;
+    }
+
+    @Override
+    public long getTimestampUs() {
+        return mTimestampUs;
+    }
+
+    /**
+     * Reusable request for a pooled frame, only to be used by the producing thread.
+     */
+    public static class Factory implements FramePool.Factory<YuvBuffer> {
+        private int mWidth;
+        private int mHeight;
+        private boolean mInterleaved;
+
+        public Factory set(int width, int height, boolean interleaved) {
+            mWidth = width;
+            mHeight = height;
+            mInterleaved = interleaved;
+            return this;
+        }
+
+        @Override
+        public YuvBuffer create() {
+            return new YuvBuffer(mWidth, mHeight, mInterleaved);
+        }
+
+        @Override
+        public boolean matches(YuvBuffer buffer) {
+            return buffer.matches(mWidth, mHeight, mInterleaved);
+        }
+    }
+}
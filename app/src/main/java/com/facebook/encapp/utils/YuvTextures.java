@@ -0,0 +1,120 @@
+package com.facebook.encapp.utils;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.facebook.encapp.utils.grafika.GlUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Persistent luminance textures holding the planes of a yuv 4:2:0 frame.
+ *
+ * Planar input uses three luminance textures, nv12 a luminance texture for Y and a
+ * luminance alpha texture for the interleaved UV plane. The textures are allocated once,
+ * every frame is uploaded with glTexSubImage2D directly from the frame buffer.
+ * Must be used on the thread owning the EGL context.
+ */
+public class YuvTextures {
+    // Raw frames start with the top row, flip to match the GL texture origin
+    public static final float[] TEX_MATRIX = new float[16];
+
+    static {
+        Matrix.setIdentityM(TEX_MATRIX, 0);
+        Matrix.translateM(TEX_MATRIX, 0, 0, 1, 0);
+        Matrix.scaleM(TEX_MATRIX, 0, 1, -1, 1);
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChromaWidth;
+    private final int mChromaHeight;
+    private final boolean mInterleaved;
+    private final int[] mTextures;
+
+    public YuvTextures(int width, int height, boolean interleaved) {
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = (width + 1) / 2;
+        mChromaHeight = (height + 1) / 2;
+        mInterleaved = interleaved;
+        mTextures = new int[interleaved ? 2 : 3];
+        GLES20.glGenTextures(mTextures.length, mTextures, 0);
+        GlUtil.checkGlError("glGenTextures");
+        allocate(mTextures[0], GLES20.GL_LUMINANCE, mWidth, mHeight);
+        if (interleaved) {
+            allocate(mTextures[1], GLES20.GL_LUMINANCE_ALPHA, mChromaWidth, mChromaHeight);
+        } else {
+            allocate(mTextures[1], GLES20.GL_LUMINANCE, mChromaWidth, mChromaHeight);
+            allocate(mTextures[2], GLES20.GL_LUMINANCE, mChromaWidth, mChromaHeight);
+        }
+    }
+
+    public boolean matches(YuvBuffer buffer) {
+        return buffer.matches(mWidth, mHeight, mInterleaved);
+    }
+
+    /**
+     * Uploads all planes of the frame. The frame buffer can be reused when this returns.
+     */
+    public void upload(ByteBuffer frame) {
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        int lumaSize = mWidth * mHeight;
+        int chromaSize = mChromaWidth * mChromaHeight;
+        update(mTextures[0], GLES20.GL_LUMINANCE, mWidth, mHeight, frame, 0);
+        if (mInterleaved) {
+            update(mTextures[1], GLES20.GL_LUMINANCE_ALPHA, mChromaWidth, mChromaHeight, frame, lumaSize);
+        } else {
+            update(mTextures[1], GLES20.GL_LUMINANCE, mChromaWidth, mChromaHeight, frame, lumaSize);
+            update(mTextures[2], GLES20.GL_LUMINANCE, mChromaWidth, mChromaHeight, frame,
+                    lumaSize + chromaSize);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        frame.position(0);
+        GlUtil.checkGlError("upload yuv");
+    }
+
+    public int getLumaTexture() {
+        return mTextures[0];
+    }
+
+    /**
+     * @return the U texture (UV for nv12).
+     */
+    public int getUTexture() {
+        return mTextures[1];
+    }
+
+    /**
+     * @return the V texture, 0 for nv12.
+     */
+    public int getVTexture() {
+        return mInterleaved ? 0 : mTextures[2];
+    }
+
+    public boolean isInterleaved() {
+        return mInterleaved;
+    }
+
+    public void release() {
+        GLES20.glDeleteTextures(mTextures.length, mTextures, 0);
+    }
+
+    private static void allocate(int texture, int format, int width, int height) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format,
+                GLES20.GL_UNSIGNED_BYTE, null);
+        GlUtil.checkGlError("allocate plane texture");
+    }
+
+    private static void update(int texture, int format, int width, int height, ByteBuffer frame, int offset) {
+        frame.position(offset);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format,
+                GLES20.GL_UNSIGNED_BYTE, frame);
+    }
+}
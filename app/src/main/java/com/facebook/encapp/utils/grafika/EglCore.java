@@ -338,6 +338,13 @@ public final class EglCore {
         return EGL14.eglQueryString(mEGLDisplay, what);
     }
 
+    /**
+     * Returns the context, e.g. to create another context sharing its objects.
+     */
+    public EGLContext getContext() {
+        return mEGLContext;
+    }
+
     /**
      * Returns the GLES version this context is configured for (currently 2 or 3).
      */
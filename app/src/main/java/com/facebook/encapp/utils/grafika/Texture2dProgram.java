@@ -29,7 +29,7 @@ public class Texture2dProgram {
     private static final String TAG = GlUtil.TAG;
 
     public enum ProgramType {
-        TEXTURE_2D, TEXTURE_EXT, TEXTURE_EXT_BW, TEXTURE_EXT_FILT
+        TEXTURE_2D, TEXTURE_EXT, TEXTURE_EXT_BW, TEXTURE_EXT_FILT, TEXTURE_I420, TEXTURE_NV12
     }
 
     // Simple vertex shader, used for all programs.
@@ -64,6 +64,35 @@ public class Texture2dProgram {
             "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
             "}\n";
 
+    // Fragment shaders converting yuv 4:2:0 planes in luminance textures to rgb (BT.601,
+    // limited range). The Y plane is sTexture, chroma is sTextureU and sTextureV or, for
+    // nv12, an interleaved luminance alpha texture sTextureU.
+    private static final String FRAGMENT_SHADER_I420 =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "uniform sampler2D sTextureU;\n" +
+            "uniform sampler2D sTextureV;\n" +
+            "void main() {\n" +
+            "    float y = 1.164 * (texture2D(sTexture, vTextureCoord).r - 0.0625);\n" +
+            "    float u = texture2D(sTextureU, vTextureCoord).r - 0.5;\n" +
+            "    float v = texture2D(sTextureV, vTextureCoord).r - 0.5;\n" +
+            "    gl_FragColor = vec4(y + 1.596 * v, y - 0.392 * u - 0.813 * v, y + 2.017 * u, 1.0);\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER_NV12 =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "uniform sampler2D sTextureU;\n" +
+            "void main() {\n" +
+            "    float y = 1.164 * (texture2D(sTexture, vTextureCoord).r - 0.0625);\n" +
+            "    vec4 uv = texture2D(sTextureU, vTextureCoord);\n" +
+            "    float u = uv.r - 0.5;\n" +
+            "    float v = uv.a - 0.5;\n" +
+            "    gl_FragColor = vec4(y + 1.596 * v, y - 0.392 * u - 0.813 * v, y + 2.017 * u, 1.0);\n" +
+            "}\n";
+
     // Fragment shader that converts color to black & white with a simple transformation.
     private static final String FRAGMENT_SHADER_EXT_BW =
             "#extension GL_OES_EGL_image_external : require\n" +
@@ -127,6 +156,10 @@ public class Texture2dProgram {
 
     private int mTextureTarget;
 
+    // Chroma textures for the yuv programs, 0 if not used
+    private int mUTexture;
+    private int mVTexture;
+
     private float[] mKernel = new float[KERNEL_SIZE];
     private float[] mTexOffset;
     private float mColorAdjust;
@@ -155,6 +188,14 @@ public class Texture2dProgram {
                 mTextureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
                 mProgramHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_EXT_FILT);
                 break;
+            case TEXTURE_I420:
+                mTextureTarget = GLES20.GL_TEXTURE_2D;
+                mProgramHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_I420);
+                break;
+            case TEXTURE_NV12:
+                mTextureTarget = GLES20.GL_TEXTURE_2D;
+                mProgramHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_NV12);
+                break;
             default:
                 throw new RuntimeException("Unhandled type " + programType);
         }
@@ -190,6 +231,18 @@ public class Texture2dProgram {
             setKernel(new float[] {0f, 0f, 0f,  0f, 1f, 0f,  0f, 0f, 0f}, 0f);
             setTexSize(256, 256);
         }
+
+        if (programType == ProgramType.TEXTURE_I420 || programType == ProgramType.TEXTURE_NV12) {
+            // The samplers use fixed texture units, Y on 0 and chroma on 1 and 2
+            GLES20.glUseProgram(mProgramHandle);
+            GLES20.glUniform1i(GLES20.glGetUniformLocation(mProgramHandle, "sTexture"), 0);
+            GLES20.glUniform1i(GLES20.glGetUniformLocation(mProgramHandle, "sTextureU"), 1);
+            if (programType == ProgramType.TEXTURE_I420) {
+                GLES20.glUniform1i(GLES20.glGetUniformLocation(mProgramHandle, "sTextureV"), 2);
+            }
+            GLES20.glUseProgram(0);
+            GlUtil.checkGlError("yuv samplers");
+        }
     }
 
     /**
@@ -238,6 +291,16 @@ public class Texture2dProgram {
         return texId;
     }
 
+    /**
+     * Sets the chroma textures drawn together with the Y texture by the yuv programs.
+     *
+     * @param vTexture 0 for nv12 where uTexture holds both planes.
+     */
+    public void setChromaTextures(int uTexture, int vTexture) {
+        mUTexture = uTexture;
+        mVTexture = vTexture;
+    }
+
     /**
      * Configures the convolution filter values.
      *
@@ -294,6 +357,14 @@ public class Texture2dProgram {
         GlUtil.checkGlError("glUseProgram");
 
         // Set the texture.
+        if (mUTexture != 0) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+            GLES20.glBindTexture(mTextureTarget, mUTexture);
+        }
+        if (mVTexture != 0) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
+            GLES20.glBindTexture(mTextureTarget, mVTexture);
+        }
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(mTextureTarget, textureId);
 
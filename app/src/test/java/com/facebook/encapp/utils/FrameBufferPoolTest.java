@@ -0,0 +1,96 @@
+package com.facebook.encapp.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the pooled hand-off from the codec callback to the data writer does not
+ * allocate per frame once warm.
+ */
+public class FrameBufferPoolTest {
+    private static final int QUEUE_SIZE = 64;
+    private static final int WARMUP_FRAMES = 10000;
+    private static final int FRAMES = 100000;
+
+    @Test
+    public void noAllocationAfterWarmup() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        FrameBufferPool pool = new FrameBufferPool(QUEUE_SIZE);
+        SpscRingBuffer<FrameBuffer> queue = new SpscRingBuffer<>(QUEUE_SIZE);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+        handOff(pool, queue, info, WARMUP_FRAMES);
+        int allocated = pool.getAllocatedCount();
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        handOff(pool, queue, info, FRAMES);
+        long bytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals("FrameBuffers allocated after warm-up", allocated, pool.getAllocatedCount());
+        // A single object per frame would be several megabytes, what is left is measurement
+        // overhead
+        assertTrue("Allocated " + bytes + " bytes for " + FRAMES + " frames", bytes < FRAMES);
+    }
+
+    @Test
+    public void allocationBoundedAcrossThreads() throws InterruptedException {
+        final FrameBufferPool pool = new FrameBufferPool(QUEUE_SIZE);
+        final SpscRingBuffer<FrameBuffer> queue = new SpscRingBuffer<>(QUEUE_SIZE);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int frames = 0;
+                while (frames < FRAMES) {
+                    FrameBuffer buffer = queue.poll();
+                    if (buffer == null) {
+                        queue.await(1000000);
+                        continue;
+                    }
+                    pool.recycle(buffer);
+                    frames++;
+                }
+            }
+        });
+        consumer.start();
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        for (int i = 0; i < FRAMES; i++) {
+            queue.put(pool.obtain(null, i, info));
+        }
+        consumer.join(10000);
+
+        // At most a full queue and one buffer on each thread are in flight
+        assertTrue("Allocated " + pool.getAllocatedCount() + " FrameBuffers",
+                pool.getAllocatedCount() <= QUEUE_SIZE + 2);
+    }
+
+    // Keeps a few frames in flight like the codec callback and the data writer
+    private static void handOff(FrameBufferPool pool, SpscRingBuffer<FrameBuffer> queue,
+                                MediaCodec.BufferInfo info, int frames) {
+        for (int i = 0; i < frames; i++) {
+            queue.put(pool.obtain(null, i, info));
+            if (i % 4 == 3) {
+                FrameBuffer buffer;
+                while ((buffer = queue.poll()) != null) {
+                    pool.recycle(buffer);
+                }
+            }
+        }
+        FrameBuffer buffer = queue.poll();
+        while (buffer != null) {
+            pool.recycle(buffer);
+            buffer = queue.poll();
+        }
+    }
+}
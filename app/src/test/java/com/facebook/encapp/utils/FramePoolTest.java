@@ -0,0 +1,77 @@
+package com.facebook.encapp.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FramePoolTest {
+    private static final int CAPACITY = 3;
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void reusesRecycledFrames() {
+        FramePool<YuvBuffer> pool = new FramePool<>(CAPACITY);
+        YuvBuffer.Factory factory = new YuvBuffer.Factory();
+        for (int i = 0; i < 1000; i++) {
+            YuvBuffer buffer = pool.obtain(factory.set(WIDTH, HEIGHT, true));
+            assertTrue(buffer.matches(WIDTH, HEIGHT, true));
+            pool.recycle(buffer);
+        }
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(0, pool.getWaitCount());
+    }
+
+    @Test
+    public void replacesFramesThatDoNotMatch() {
+        final int[] released = {0};
+        FramePool<YuvBuffer> pool = new FramePool<>(CAPACITY, new FramePool.Releaser<YuvBuffer>() {
+            @Override
+            public void release(YuvBuffer frame) {
+                released[0]++;
+            }
+        });
+        YuvBuffer.Factory factory = new YuvBuffer.Factory();
+        YuvBuffer planar = pool.obtain(factory.set(WIDTH, HEIGHT, false));
+        pool.recycle(planar);
+        YuvBuffer interleaved = pool.obtain(factory.set(WIDTH, HEIGHT, true));
+        assertNotSame(planar, interleaved);
+        assertTrue(interleaved.matches(WIDTH, HEIGHT, true));
+        assertEquals(1, released[0]);
+        pool.recycle(interleaved);
+        assertSame(interleaved, pool.obtain(factory));
+    }
+
+    @Test
+    public void allocationBoundedAcrossThreads() throws InterruptedException {
+        final int frames = 10000;
+        final FramePool<YuvBuffer> pool = new FramePool<>(CAPACITY);
+        final SpscRingBuffer<YuvBuffer> queue = new SpscRingBuffer<>(CAPACITY);
+        Thread renderer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int count = 0;
+                while (count < frames) {
+                    YuvBuffer buffer = queue.poll();
+                    if (buffer == null) {
+                        queue.await(1000000);
+                        continue;
+                    }
+                    pool.recycle(buffer);
+                    count++;
+                }
+            }
+        });
+        renderer.start();
+        YuvBuffer.Factory factory = new YuvBuffer.Factory().set(WIDTH, HEIGHT, true);
+        for (int i = 0; i < frames; i++) {
+            queue.put(pool.obtain(factory));
+        }
+        renderer.join(10000);
+
+        assertEquals(CAPACITY, pool.getAllocatedCount());
+    }
+}
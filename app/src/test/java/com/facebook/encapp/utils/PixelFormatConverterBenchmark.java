@@ -0,0 +1,53 @@
+package com.facebook.encapp.utils;
+
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.encapp.utils.PixelFormatConverter.Format;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times the conversions of a 1080p frame, serial and with fork join tiling. Results are
+ * printed, e.g. ./gradlew test --tests '*PixelFormatConverterBenchmark' -i
+ */
+public class PixelFormatConverterBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    private static final Format[][] CONVERSIONS = {
+            {Format.I420, Format.NV12},
+            {Format.NV12, Format.I420},
+            {Format.NV12, Format.NV21},
+            {Format.NV12, Format.RGBA},
+            {Format.RGBA, Format.I420},
+    };
+
+    @Test
+    public void benchmark() {
+        byte[] rgba = new byte[PixelFormatConverter.frameSize(Format.RGBA, WIDTH, HEIGHT)];
+        new Random(1).nextBytes(rgba);
+        byte[] out = new byte[rgba.length];
+        for (boolean parallel : new boolean[]{false, true}) {
+            PixelFormatConverter converter = new PixelFormatConverter(WIDTH, HEIGHT);
+            converter.setParallel(parallel);
+            for (Format[] conversion : CONVERSIONS) {
+                for (int i = 0; i < WARMUP; i++) {
+                    converter.convert(rgba, conversion[0], out, conversion[1]);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    converter.convert(rgba, conversion[0], out, conversion[1]);
+                }
+                double ms = (System.nanoTime() - start) / 1000000.0 / ITERATIONS;
+                System.out.println(String.format(Locale.US, "%s -> %s%s: %.3f ms/frame",
+                        conversion[0], conversion[1], parallel ? " (parallel)" : "", ms));
+                assertTrue(ms > 0);
+            }
+        }
+    }
+}
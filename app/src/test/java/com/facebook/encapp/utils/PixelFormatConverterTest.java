@@ -0,0 +1,144 @@
+package com.facebook.encapp.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.encapp.utils.PixelFormatConverter.Format;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class PixelFormatConverterTest {
+    // Chroma width not a multiple of four to cover the tail of the word loops
+    private static final int WIDTH = 198;
+    private static final int HEIGHT = 130;
+
+    @Test
+    public void i420ToNv12MatchesReference() {
+        byte[] i420 = randomFrame(Format.I420, WIDTH, HEIGHT);
+        byte[] nv12 = new byte[i420.length];
+        new PixelFormatConverter(WIDTH, HEIGHT).convert(i420, Format.I420, nv12, Format.NV12);
+        assertArrayEquals(referenceInterleave(i420, WIDTH, HEIGHT, false), nv12);
+    }
+
+    @Test
+    public void i420ToNv21MatchesReference() {
+        byte[] i420 = randomFrame(Format.I420, WIDTH, HEIGHT);
+        byte[] nv21 = new byte[i420.length];
+        new PixelFormatConverter(WIDTH, HEIGHT).convert(i420, Format.I420, nv21, Format.NV21);
+        assertArrayEquals(referenceInterleave(i420, WIDTH, HEIGHT, true), nv21);
+    }
+
+    @Test
+    public void interleavedRoundTrip() {
+        PixelFormatConverter converter = new PixelFormatConverter(WIDTH, HEIGHT);
+        byte[] i420 = randomFrame(Format.I420, WIDTH, HEIGHT);
+        byte[] nv12 = new byte[i420.length];
+        byte[] nv21 = new byte[i420.length];
+        byte[] back = new byte[i420.length];
+
+        converter.convert(i420, Format.I420, nv12, Format.NV12);
+        converter.convert(nv12, Format.NV12, back, Format.I420);
+        assertArrayEquals(i420, back);
+
+        converter.convert(nv12, Format.NV12, nv21, Format.NV21);
+        converter.convert(nv21, Format.NV21, back, Format.I420);
+        assertArrayEquals(i420, back);
+    }
+
+    @Test
+    public void rowKernelsMatchReference() {
+        Random random = new Random(1);
+        for (int count = 0; count < 18; count++) {
+            byte[] u = new byte[count];
+            byte[] v = new byte[count];
+            random.nextBytes(u);
+            random.nextBytes(v);
+            byte[] expected = new byte[count * 2];
+            for (int i = 0; i < count; i++) {
+                expected[2 * i] = u[i];
+                expected[2 * i + 1] = v[i];
+            }
+            byte[] row = new byte[count * 2];
+            PixelFormatConverter.interleaveRow(wrap(u), 0, wrap(v), 0, wrap(row), 0, count);
+            assertArrayEquals("interleave " + count, expected, row);
+
+            byte[] u2 = new byte[count];
+            byte[] v2 = new byte[count];
+            PixelFormatConverter.deinterleaveRow(wrap(row), 0, wrap(u2), 0, wrap(v2), 0, count);
+            assertArrayEquals("deinterleave u " + count, u, u2);
+            assertArrayEquals("deinterleave v " + count, v, v2);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        int width = 1280;
+        int height = 720;
+        PixelFormatConverter serial = new PixelFormatConverter(width, height);
+        PixelFormatConverter parallel = new PixelFormatConverter(width, height);
+        parallel.setParallel(true);
+        byte[] i420 = randomFrame(Format.I420, width, height);
+        byte[] a = new byte[PixelFormatConverter.frameSize(Format.RGBA, width, height)];
+        byte[] b = new byte[a.length];
+
+        serial.convert(i420, Format.I420, a, Format.NV12);
+        parallel.convert(i420, Format.I420, b, Format.NV12);
+        assertArrayEquals(a, b);
+
+        serial.convert(i420, Format.I420, a, Format.RGBA);
+        parallel.convert(i420, Format.I420, b, Format.RGBA);
+        assertArrayEquals(a, b);
+    }
+
+    @Test
+    public void rgbaRoundTripOfFlatColors() {
+        int[][] colors = {{16, 128, 128}, {235, 128, 128}, {81, 90, 240}, {145, 54, 34}, {41, 240, 110}};
+        PixelFormatConverter converter = new PixelFormatConverter(WIDTH, HEIGHT);
+        int lumaSize = WIDTH * HEIGHT;
+        int chromaSize = ((WIDTH + 1) / 2) * ((HEIGHT + 1) / 2);
+        byte[] i420 = new byte[PixelFormatConverter.frameSize(Format.I420, WIDTH, HEIGHT)];
+        byte[] rgba = new byte[PixelFormatConverter.frameSize(Format.RGBA, WIDTH, HEIGHT)];
+        byte[] back = new byte[i420.length];
+        for (int[] color : colors) {
+            java.util.Arrays.fill(i420, 0, lumaSize, (byte) color[0]);
+            java.util.Arrays.fill(i420, lumaSize, lumaSize + chromaSize, (byte) color[1]);
+            java.util.Arrays.fill(i420, lumaSize + chromaSize, i420.length, (byte) color[2]);
+
+            converter.convert(i420, Format.I420, rgba, Format.RGBA);
+            converter.convert(rgba, Format.RGBA, back, Format.I420);
+            for (int i = 0; i < i420.length; i++) {
+                int diff = Math.abs((i420[i] & 0xff) - (back[i] & 0xff));
+                assertTrue("Color " + color[0] + "," + color[1] + "," + color[2] + " differs by " + diff + " at " + i,
+                        diff <= 2);
+            }
+        }
+    }
+
+    private static byte[] randomFrame(Format format, int width, int height) {
+        byte[] frame = new byte[PixelFormatConverter.frameSize(format, width, height)];
+        new Random(width * 31 + height).nextBytes(frame);
+        return frame;
+    }
+
+    private static byte[] referenceInterleave(byte[] i420, int width, int height, boolean swap) {
+        int lumaSize = width * height;
+        int chromaSize = ((width + 1) / 2) * ((height + 1) / 2);
+        byte[] out = new byte[i420.length];
+        System.arraycopy(i420, 0, out, 0, lumaSize);
+        for (int i = 0; i < chromaSize; i++) {
+            byte u = i420[lumaSize + i];
+            byte v = i420[lumaSize + chromaSize + i];
+            out[lumaSize + 2 * i] = swap ? v : u;
+            out[lumaSize + 2 * i + 1] = swap ? u : v;
+        }
+        return out;
+    }
+
+    private static ByteBuffer wrap(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
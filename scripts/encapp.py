@@ -38,6 +38,7 @@ FUNC_CHOICES = {
     'uninstall': 'uninstall apks',
     'list': 'list codecs and devices supported',
     'run': 'run codec test case',
+    'capacity': 'find the max number of parallel sessions of a test',
 }
 
 default_values = {
@@ -64,7 +65,14 @@ extra_settings = {
     'out_framerate': None,
 }
 
+CAPACITY_RESULT_FILE_NAME = 'capacity_results.json'
+CAPACITY_MAX_SESSIONS = 16
+# share of the target frame rate every session has to reach
+CAPACITY_FPS_MARGIN = 0.95
+
 RAW_EXTENSION_LIST = ('.yuv', '.rgb', '.raw')
+# inputs generated on the device, nothing to push
+SYNTHETIC_INPUT_PREFIX = 'synthetic://'
 OPERATION_TYPES = ('batch', 'realtime')
 PIX_FMT_TYPES = ('yuv420p', 'nv12')
 KNOWN_CONFIGURE_TYPES = {
@@ -202,22 +210,29 @@ def update_file_paths(test, new_name):
     for para in test.parallel.test:
         update_file_paths(para, new_name)
 
-    if path == 'camera':
+    if is_device_input(path):
         return
 
     if new_name is not None:
         path = new_name
+        if is_device_input(path):
+            test.input.filepath = path
+            return
 
     test.input.filepath = f'/sdcard/{os.path.basename(path)}'
     path = test.input.filepath
 
 
+def is_device_input(path):
+    return path == 'camera' or path.startswith(SYNTHETIC_INPUT_PREFIX)
+
+
 def add_files(test, files_to_push):
-    if test.input.filepath != 'camera':
+    if not is_device_input(test.input.filepath):
         if not (test.input.filepath in files_to_push):
             files_to_push.append(test.input.filepath)
     for para in test.parallel.test:
-        if para.input.filepath != 'camera':
+        if not is_device_input(para.input.filepath):
             files_to_push = add_files(para, files_to_push)
     return files_to_push
 
@@ -237,27 +252,34 @@ def abort_test(workdir, message):
     exit(0)
 
 
+def apply_settings(test, settings):
+    if settings['encoder'] is not None and len(settings['encoder']) > 0:
+        test.configure.codec = settings['encoder']
+    if (settings['inp_resolution'] is not None and
+            len(settings['inp_resolution']) > 0):
+        test.input.resolution = settings['inp_resolution']
+    if (settings['out_resolution'] is not None and
+            len(settings['out_resolution']) > 0):
+        test.configure.resolution = settings['out_resolution']
+    if settings['inp_framerate'] is not None:
+        test.input.framerate = settings['inp_framerate']
+    if settings['out_framerate'] is not None:
+        test.configure.framerate = settings['out_framerate']
+
+
 def run_codec_tests(tests, model, serial, workdir, settings):
     test_def = settings['configfile']  # todo: check
     print(f'Run test: {test_def}')
     fresh = tests_definitions.Tests()
     files_to_push = []
     for test in tests.test:
-        if settings['encoder'] is not None and len(settings['encoder']) > 0:
-            test.configure.codec = settings['encoder']
-        if (settings['inp_resolution'] is not None and
-                len(settings['inp_resolution']) > 0):
-            test.input.resolution = settings['inp_resolution']
-        if (settings['out_resolution'] is not None and
-                len(settings['out_resolution']) > 0):
-            test.configure.resolution = settings['out_resolution']
-        if settings['inp_framerate'] is not None:
-            test.input.framerate = settings['inp_framerate']
-        if settings['out_framerate'] is not None:
-            test.configure.framerate = settings['out_framerate']
+        apply_settings(test, settings)
 
         videofile = settings['videofile']
-        if videofile is not None and len(videofile) > 0:
+        if videofile is not None and is_device_input(videofile):
+            # generated on the device, nothing to push or verify
+            pass
+        elif videofile is not None and len(videofile) > 0:
             files_to_push.append(videofile)
             # verify video and resolution
             if not verify_video_size(videofile, test.input.resolution):
@@ -420,6 +442,158 @@ def codec_test(settings, model, serial):
                                 settings)
 
 
+def build_parallel_tests(template, count):
+    # the first session runs the others as parallel tests
+    tests = tests_definitions.Tests()
+    first = tests.test.add()
+    first.CopyFrom(template)
+    first.ClearField('parallel')
+    for index in range(count):
+        session = first
+        if index > 0:
+            session = first.parallel.test.add()
+            session.CopyFrom(template)
+            session.ClearField('parallel')
+        session.common.description = (
+            f'{template.common.description} '
+            f'[session {index + 1}/{count}]')
+    return tests
+
+
+def get_session_stats(json_file):
+    with open(json_file) as fd:
+        data = json.load(fd)
+    frames = data.get('frames', [])
+    proctime_sec = data.get('proctime', 0) / 1e9
+    fps = len(frames) / proctime_sec if proctime_sec > 0 else 0
+    latencies = sorted(frame['proctime'] / 1e6 for frame in frames
+                       if frame.get('proctime', 0) > 0)
+    load = [sample['load_percentage'] for sample in
+            data.get('gpu_data', {}).get('gpu_load_percentage', [])]
+    return {
+        'test': data.get('test'),
+        'framecount': len(frames),
+        'fps': round(fps, 2),
+        'mean_latency_ms': (round(sum(latencies) / len(latencies), 2)
+                            if latencies else 0),
+        'p90_latency_ms': (round(latencies[int(len(latencies) * 0.9)], 2)
+                           if latencies else 0),
+        'max_latency_ms': round(latencies[-1], 2) if latencies else 0,
+        'mean_gpu_load': round(sum(load) / len(load), 1) if load else 0,
+    }
+
+
+def run_capacity_step(template, count, model, serial, workdir, settings,
+                      target_fps):
+    print(f'Capacity step: {count} sessions')
+    step_dir = f'{workdir}/sessions_{count}'
+    step_settings = dict(settings)
+    step_settings['configfile'] = f'capacity_{count}.pbtxt'
+    # settings are already applied to the template
+    step_settings['bitrate'] = None
+    result = run_codec_tests(build_parallel_tests(template, count), model,
+                             serial, step_dir, step_settings)
+    verify_app_version(result)
+    sessions = [get_session_stats(json_file) for json_file in result]
+    fps = [session['fps'] for session in sessions]
+    latencies = [session['mean_latency_ms'] for session in sessions]
+    # all sessions have to finish and keep up with the target
+    stable = (len(sessions) == count and
+              all(value >= target_fps * CAPACITY_FPS_MARGIN
+                  for value in fps))
+    return {
+        'sessions': count,
+        'stable': stable,
+        'completed': len(sessions),
+        'min_fps': min(fps) if fps else 0,
+        'mean_fps': round(sum(fps) / len(fps), 2) if fps else 0,
+        'mean_latency_ms': (round(sum(latencies) / len(latencies), 2)
+                            if latencies else 0),
+        'max_latency_ms': max((session['max_latency_ms']
+                               for session in sessions), default=0),
+        # the load is device wide, each session samples the same counters
+        'mean_gpu_load': max((session['mean_gpu_load']
+                              for session in sessions), default=0),
+        'session_data': sessions,
+    }
+
+
+def capacity_test(settings, model, serial, target_fps, max_sessions):
+    print(f'capacity test: {settings}')
+    test_config = convert_test(settings['configfile'])
+    tests = tests_definitions.Tests()
+    with open(test_config, 'rb') as fd:
+        tests.ParseFromString(fd.read())
+    assert len(tests.test) > 0, 'error: no test in the configuration file'
+    template = tests.test[0]
+    apply_settings(template, settings)
+    if settings['bitrate'] is not None and len(settings['bitrate']) > 0:
+        template.configure.bitrate = str(convert_to_bps(settings['bitrate']))
+    if target_fps is None:
+        if template.configure.HasField('framerate'):
+            target_fps = template.configure.framerate
+        elif template.input.HasField('framerate'):
+            target_fps = template.input.framerate
+        else:
+            target_fps = 30
+
+    now = datetime.datetime.now()
+    dt_string = now.strftime('%Y-%m-%d_%H_%M')
+    if settings['output'] is not None:
+        workdir = settings['output']
+    else:
+        workdir = (f"{settings['desc'].replace(' ', '_')}_capacity_{model}_"
+                   f'{dt_string}')
+
+    # ramp up the session count until a step fails, then bisect
+    steps = []
+    stable_count = 0
+    failed_count = max_sessions + 1
+    count = 1
+    while count <= max_sessions:
+        step = run_capacity_step(template, count, model, serial, workdir,
+                                 settings, target_fps)
+        steps.append(step)
+        if not step['stable']:
+            failed_count = count
+            break
+        stable_count = count
+        if count == max_sessions:
+            break
+        count = min(count * 2, max_sessions)
+    while failed_count - stable_count > 1:
+        count = (stable_count + failed_count) // 2
+        step = run_capacity_step(template, count, model, serial, workdir,
+                                 settings, target_fps)
+        steps.append(step)
+        if step['stable']:
+            stable_count = count
+        else:
+            failed_count = count
+
+    summary = {
+        'model': model,
+        'test': template.common.description,
+        'codec': template.configure.codec,
+        'target_fps': target_fps,
+        'fps_margin': CAPACITY_FPS_MARGIN,
+        'max_sessions': max_sessions,
+        'max_stable_sessions': stable_count,
+        'steps': sorted(steps, key=lambda step: step['sessions']),
+    }
+    print(f'\n{"sessions":>8} {"stable":>6} {"min fps":>8} {"mean fps":>8} '
+          f'{"latency ms":>10} {"gpu load":>8}')
+    for step in summary['steps']:
+        print(f"{step['sessions']:>8} {str(step['stable']):>6} "
+              f"{step['min_fps']:>8} {step['mean_fps']:>8} "
+              f"{step['mean_latency_ms']:>10} {step['mean_gpu_load']:>8}")
+    print(f'Max stable sessions at {target_fps} fps: {stable_count}')
+    os.system('mkdir -p ' + workdir)
+    with open(f'{workdir}/{CAPACITY_RESULT_FILE_NAME}', 'w') as fd:
+        json.dump(summary, fd, indent=2)
+    return summary
+
+
 def get_options(argv):
     parser = argparse.ArgumentParser(description=__doc__)
     parser.add_argument(
@@ -468,6 +642,14 @@ def get_options(argv):
         help='input video bitrate, either as a single number, '
         '"100 kbps" or a lst 100kbps,200kbps or a range '
         '100k-1M-100k (start-stop-step)',)
+    parser.add_argument(
+        '--target-fps', type=float, dest='target_fps', default=None,
+        help='capacity: frame rate every session has to sustain '
+        '(default is the test frame rate)',)
+    parser.add_argument(
+        '--max-sessions', type=int, dest='max_sessions',
+        default=CAPACITY_MAX_SESSIONS,
+        help='capacity: max number of parallel sessions to try',)
     parser.add_argument(
         'configfile', type=str, nargs='?',
         default=default_values['configfile'],
@@ -563,7 +745,7 @@ def main(argv):
 
     videofile_config = {}
     if (options.videofile is not None and
-            options.videofile != 'camera'):
+            not is_device_input(options.videofile)):
         videofile_config = get_video_info(options.videofile)  # noqa: F841
 
     # get model and serial number
@@ -613,6 +795,22 @@ def main(argv):
         result = codec_test(settings, model, serial)
         verify_app_version(result)
 
+    elif options.func == 'capacity':
+        assert options.configfile is not None, (
+            'error: need a valid input configuration file')
+        assert options.max_sessions > 0, 'error: max sessions must be > 0'
+
+        settings = extra_settings
+        settings['configfile'] = options.configfile
+        settings['videofile'] = options.videofile
+        settings['encoder'] = options.codec
+        settings['output'] = options.output
+        settings['bitrate'] = options.bitrate
+        settings['desc'] = options.desc
+
+        capacity_test(settings, model, serial, options.target_fps,
+                      options.max_sessions)
+
 
 if __name__ == '__main__':
     try:
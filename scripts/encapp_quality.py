@@ -93,6 +93,11 @@ def run_quality(test_file, optionals):
     # For raw we assume the source is the same resolution as the media
     # For surface transcoding look at decoder_media_format
 
+    # Hash only runs do not store the encoded stream
+    if len(test.get('encodedfile', '')) == 0:
+        print(f'No encoded file in {test_file}, skipping')
+        return None
+
     # Assume encoded file in same directory as test result json file
     directory, _ = os.path.split(test_file)
     encodedfile = directory + '/' + test.get('encodedfile')
@@ -15,7 +15,7 @@ _sym_db = _symbol_database.Default()
 
 
 
-DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x0btests.proto\"K\n\x06\x43ommon\x12\n\n\x02id\x18\x01 \x01(\t\x12\x13\n\x0b\x64\x65scription\x18\x02 \x01(\t\x12\x11\n\toperation\x18\x03 \x01(\t\x12\r\n\x05start\x18\x04 \x01(\t\"\xe0\x01\n\x05Input\x12\x10\n\x08\x66ilepath\x18\x01 \x01(\t\x12\x12\n\nresolution\x18\x02 \x01(\t\x12\x1e\n\x07pix_fmt\x18\x03 \x01(\x0e\x32\r.Input.PixFmt\x12\x11\n\tframerate\x18\x04 \x01(\x02\x12\x16\n\x0eplayout_frames\x18\x05 \x01(\x05\x12\x0f\n\x07pursuit\x18\x06 \x01(\x05\x12\x10\n\x08realtime\x18\x07 \x01(\x08\x12\x14\n\x0cstoptime_sec\x18\x08 \x01(\x02\x12\x0c\n\x04show\x18\t \x01(\x08\"\x1f\n\x06PixFmt\x12\x0b\n\x07yuv420p\x10\x00\x12\x08\n\x04nv12\x10\x01\"\xf2\x06\n\tConfigure\x12\'\n\tparameter\x18\x01 \x03(\x0b\x32\x14.Configure.Parameter\x12\r\n\x05\x63odec\x18\x02 \x01(\t\x12\x0e\n\x06\x65ncode\x18\x03 \x01(\x08\x12\x0f\n\x07surface\x18\x04 \x01(\x08\x12\x0c\n\x04mime\x18\x05 \x01(\t\x12\x0f\n\x07\x62itrate\x18\x06 \x01(\t\x12,\n\x0c\x62itrate_mode\x18\x07 \x01(\x0e\x32\x16.Configure.BitrateMode\x12\x12\n\ndurationUs\x18\x08 \x01(\x04\x12\x12\n\nresolution\x18\t \x01(\t\x12\x14\n\x0c\x63olor_format\x18\n \x01(\t\x12\x30\n\x0e\x63olor_standard\x18\x0b \x01(\x0e\x32\x18.Configure.ColorStandard\x12*\n\x0b\x63olor_range\x18\x0c \x01(\x0e\x32\x15.Configure.ColorRange\x12\x30\n\x0e\x63olor_transfer\x18\r \x01(\x0e\x32\x18.Configure.ColorTransfer\x12\x1e\n\x16\x63olor_transfer_request\x18\x0e \x01(\t\x12\x11\n\tframerate\x18\x0f \x01(\x02\x12\x18\n\x10i_frame_interval\x18\x10 \x01(\x05\x12\x1c\n\x14intra_refresh_period\x18\x11 \x01(\x05\x12\x0f\n\x07latency\x18\x12 \x01(\x05\x12#\n\x1brepeat_previous_frame_after\x18\x13 \x01(\x03\x12\x11\n\tts_schema\x18\x14 \x01(\t\x12\x15\n\rquality_level\x18\x15 \x01(\x05\x1a\x45\n\tParameter\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\x1c\n\x04type\x18\x02 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x03 \x01(\t\"3\n\x0b\x42itrateMode\x12\x06\n\x02\x63q\x10\x00\x12\x07\n\x03vbr\x10\x01\x12\x07\n\x03\x63\x62r\x10\x02\x12\n\n\x06\x63\x62r_fd\x10\x03\"D\n\rColorStandard\x12\r\n\tbt601_pal\x10\x02\x12\x0e\n\nbt601_ntsc\x10\x04\x12\t\n\x05\x62t709\x10\x01\x12\t\n\x05\x62t202\x10\x06\"#\n\nColorRange\x12\x08\n\x04\x66ull\x10\x01\x12\x0b\n\x07limited\x10\x02\"?\n\rColorTransfer\x12\n\n\x06linear\x10\x01\x12\r\n\tsdr_video\x10\x03\x12\n\n\x06st2084\x10\x06\x12\x07\n\x03hlg\x10\x07\"\xa1\x03\n\x07Runtime\x12%\n\tparameter\x18\x01 \x03(\x0b\x32\x12.Runtime.Parameter\x12\x35\n\rvideo_bitrate\x18\x02 \x03(\x0b\x32\x1e.Runtime.VideoBitrateParameter\x12\x0c\n\x04\x64rop\x18\x03 \x03(\x03\x12=\n\x11\x64ynamic_framerate\x18\x04 \x03(\x0b\x32\".Runtime.DynamicFramerateParameter\x12\x14\n\x0crequest_sync\x18\x05 \x03(\x03\x1aW\n\tParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x0b\n\x03key\x18\x02 \x01(\t\x12\x1c\n\x04type\x18\x03 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x04 \x01(\t\x1a:\n\x15VideoBitrateParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x0f\n\x07\x62itrate\x18\x02 \x01(\t\x1a@\n\x19\x44ynamicFramerateParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x11\n\tframerate\x18\x02 \x01(\x02\"\x89\x01\n\x10\x44\x65\x63oderConfigure\x12.\n\tparameter\x18\x01 \x03(\x0b\x32\x1b.DecoderConfigure.Parameter\x1a\x45\n\tParameter\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\x1c\n\x04type\x18\x02 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x03 \x01(\t\"\x97\x01\n\x0e\x44\x65\x63oderRuntime\x12,\n\tparameter\x18\x01 \x03(\x0b\x32\x19.DecoderRuntime.Parameter\x1aW\n\tParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x0b\n\x03key\x18\x02 \x01(\t\x12\x1c\n\x04type\x18\x03 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x04 \x01(\t\"\x1f\n\x08Parallel\x12\x13\n\x04test\x18\x01 \x03(\x0b\x32\x05.Test\"\x1d\n\x06Serial\x12\x13\n\x04test\x18\x01 \x03(\x0b\x32\x05.Test\"\xe5\x01\n\x04Test\x12\x17\n\x06\x63ommon\x18\x01 \x01(\x0b\x32\x07.Common\x12\x15\n\x05input\x18\x02 \x01(\x0b\x32\x06.Input\x12\x1d\n\tconfigure\x18\x03 \x01(\x0b\x32\n.Configure\x12\x19\n\x07runtime\x18\x04 \x01(\x0b\x32\x08.Runtime\x12,\n\x11\x64\x65\x63oder_configure\x18\x05 \x01(\x0b\x32\x11.DecoderConfigure\x12(\n\x0f\x64\x65\x63oder_runtime\x18\x06 \x01(\x0b\x32\x0f.DecoderRuntime\x12\x1b\n\x08parallel\x18\x07 \x01(\x0b\x32\t.Parallel\"\x1c\n\x05Tests\x12\x13\n\x04test\x18\x01 \x03(\x0b\x32\x05.Test*I\n\rDataValueType\x12\x0e\n\nstringType\x10\x00\x12\x0b\n\x07intType\x10\x01\x12\r\n\tfloatType\x10\x02\x12\x0c\n\x08longType\x10\x03\x42-\n\x19\x63om.facebook.encapp.protoB\x0eTestDefinitionP\x01')
+DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x0btests.proto\"K\n\x06\x43ommon\x12\n\n\x02id\x18\x01 \x01(\t\x12\x13\n\x0b\x64\x65scription\x18\x02 \x01(\t\x12\x11\n\toperation\x18\x03 \x01(\t\x12\r\n\x05start\x18\x04 \x01(\t\"\x85\x03\n\x05Input\x12\x10\n\x08\x66ilepath\x18\x01 \x01(\t\x12\x12\n\nresolution\x18\x02 \x01(\t\x12\x1e\n\x07pix_fmt\x18\x03 \x01(\x0e\x32\r.Input.PixFmt\x12\x11\n\tframerate\x18\x04 \x01(\x02\x12\x16\n\x0eplayout_frames\x18\x05 \x01(\x05\x12\x0f\n\x07pursuit\x18\x06 \x01(\x05\x12\x10\n\x08realtime\x18\x07 \x01(\x08\x12\x14\n\x0cstoptime_sec\x18\x08 \x01(\x02\x12\x0c\n\x04show\x18\t \x01(\x08\x12\x15\n\rmemory_mapped\x18\n \x01(\x08\x12\x16\n\x0e\x66rame_cache_mb\x18\x0b \x01(\x05\x12\x17\n\x0fprefetch_frames\x18\x0c \x01(\x05\x12,\n\x0erender_workers\x18\r \x01(\x0e\x32\x14.Input.RenderWorkers\"\x1f\n\x06PixFmt\x12\x0b\n\x07yuv420p\x10\x00\x12\x08\n\x04nv12\x10\x01\"-\n\rRenderWorkers\x12\x07\n\x03off\x10\x00\x12\t\n\x05\x62lock\x10\x01\x12\x08\n\x04\x64rop\x10\x02\"\xfa\x07\n\tConfigure\x12\'\n\tparameter\x18\x01 \x03(\x0b\x32\x14.Configure.Parameter\x12\r\n\x05\x63odec\x18\x02 \x01(\t\x12\x0e\n\x06\x65ncode\x18\x03 \x01(\x08\x12\x0f\n\x07surface\x18\x04 \x01(\x08\x12\x0c\n\x04mime\x18\x05 \x01(\t\x12\x0f\n\x07\x62itrate\x18\x06 \x01(\t\x12,\n\x0c\x62itrate_mode\x18\x07 \x01(\x0e\x32\x16.Configure.BitrateMode\x12\x12\n\ndurationUs\x18\x08 \x01(\x04\x12\x12\n\nresolution\x18\t \x01(\t\x12\x14\n\x0c\x63olor_format\x18\n \x01(\t\x12\x30\n\x0e\x63olor_standard\x18\x0b \x01(\x0e\x32\x18.Configure.ColorStandard\x12*\n\x0b\x63olor_range\x18\x0c \x01(\x0e\x32\x15.Configure.ColorRange\x12\x30\n\x0e\x63olor_transfer\x18\r \x01(\x0e\x32\x18.Configure.ColorTransfer\x12\x1e\n\x16\x63olor_transfer_request\x18\x0e \x01(\t\x12\x11\n\tframerate\x18\x0f \x01(\x02\x12\x18\n\x10i_frame_interval\x18\x10 \x01(\x05\x12\x1c\n\x14intra_refresh_period\x18\x11 \x01(\x05\x12\x0f\n\x07latency\x18\x12 \x01(\x05\x12#\n\x1brepeat_previous_frame_after\x18\x13 \x01(\x03\x12\x11\n\tts_schema\x18\x14 \x01(\t\x12\x15\n\rquality_level\x18\x15 \x01(\x05\x12\x13\n\x0bimage_input\x18\x16 \x01(\x08\x12\x12\n\nasync_mode\x18\x17 \x01(\x08\x12*\n\x0boutput_sink\x18\x18 \x01(\x0e\x32\x15.Configure.OutputSink\x1a\x45\n\tParameter\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\x1c\n\x04type\x18\x02 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x03 \x01(\t\"3\n\x0b\x42itrateMode\x12\x06\n\x02\x63q\x10\x00\x12\x07\n\x03vbr\x10\x01\x12\x07\n\x03\x63\x62r\x10\x02\x12\n\n\x06\x63\x62r_fd\x10\x03\"D\n\rColorStandard\x12\r\n\tbt601_pal\x10\x02\x12\x0e\n\nbt601_ntsc\x10\x04\x12\t\n\x05\x62t709\x10\x01\x12\t\n\x05\x62t202\x10\x06\"#\n\nColorRange\x12\x08\n\x04\x66ull\x10\x01\x12\x0b\n\x07limited\x10\x02\"?\n\rColorTransfer\x12\n\n\x06linear\x10\x01\x12\r\n\tsdr_video\x10\x03\x12\n\n\x06st2084\x10\x06\x12\x07\n\x03hlg\x10\x07\"1\n\nOutputSink\x12\t\n\x05muxer\x10\x00\x12\x0e\n\nelementary\x10\x01\x12\x08\n\x04hash\x10\x02\"\xa1\x03\n\x07Runtime\x12%\n\tparameter\x18\x01 \x03(\x0b\x32\x12.Runtime.Parameter\x12\x35\n\rvideo_bitrate\x18\x02 \x03(\x0b\x32\x1e.Runtime.VideoBitrateParameter\x12\x0c\n\x04\x64rop\x18\x03 \x03(\x03\x12=\n\x11\x64ynamic_framerate\x18\x04 \x03(\x0b\x32\".Runtime.DynamicFramerateParameter\x12\x14\n\x0crequest_sync\x18\x05 \x03(\x03\x1aW\n\tParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x0b\n\x03key\x18\x02 \x01(\t\x12\x1c\n\x04type\x18\x03 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x04 \x01(\t\x1a:\n\x15VideoBitrateParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x0f\n\x07\x62itrate\x18\x02 \x01(\t\x1a@\n\x19\x44ynamicFramerateParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x11\n\tframerate\x18\x02 \x01(\x02\"\xad\x01\n\x10\x44\x65\x63oderConfigure\x12.\n\tparameter\x18\x01 \x03(\x0b\x32\x1b.DecoderConfigure.Parameter\x12\x10\n\x08headless\x18\x02 \x01(\x08\x12\x10\n\x08\x63hecksum\x18\x03 \x01(\x08\x1a\x45\n\tParameter\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\x1c\n\x04type\x18\x02 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x03 \x01(\t\"\x97\x01\n\x0e\x44\x65\x63oderRuntime\x12,\n\tparameter\x18\x01 \x03(\x0b\x32\x19.DecoderRuntime.Parameter\x1aW\n\tParameter\x12\x10\n\x08\x66ramenum\x18\x01 \x01(\x03\x12\x0b\n\x03key\x18\x02 \x01(\t\x12\x1c\n\x04type\x18\x03 \x01(\x0e\x32\x0e.DataValueType\x12\r\n\x05value\x18\x04 \x01(\t\"\x1f\n\x08Parallel\x12\x13\n\x04test\x18\x01 \x03(\x0b\x32\x05.Test\"\x1d\n\x06Serial\x12\x13\n\x04test\x18\x01 \x03(\x0b\x32\x05.Test\"\x88\x01\n\x06Ladder\x12\x1a\n\x04rung\x18\x01 \x03(\x0b\x32\x0c.Ladder.Rung\x1a\x62\n\x04Rung\x12\x13\n\x0b\x64\x65scription\x18\x01 \x01(\t\x12\x12\n\nresolution\x18\x02 \x01(\t\x12\x0f\n\x07\x62itrate\x18\x03 \x01(\t\x12\r\n\x05\x63odec\x18\x04 \x01(\t\x12\x11\n\tframerate\x18\x05 \x01(\x02\"\xfe\x01\n\x04Test\x12\x17\n\x06\x63ommon\x18\x01 \x01(\x0b\x32\x07.Common\x12\x15\n\x05input\x18\x02 \x01(\x0b\x32\x06.Input\x12\x1d\n\tconfigure\x18\x03 \x01(\x0b\x32\n.Configure\x12\x19\n\x07runtime\x18\x04 \x01(\x0b\x32\x08.Runtime\x12,\n\x11\x64\x65\x63oder_configure\x18\x05 \x01(\x0b\x32\x11.DecoderConfigure\x12(\n\x0f\x64\x65\x63oder_runtime\x18\x06 \x01(\x0b\x32\x0f.DecoderRuntime\x12\x1b\n\x08parallel\x18\x07 \x01(\x0b\x32\t.Parallel\x12\x17\n\x06ladder\x18\x08 \x01(\x0b\x32\x07.Ladder\"\x1c\n\x05Tests\x12\x13\n\x04test\x18\x01 \x03(\x0b\x32\x05.Test*I\n\rDataValueType\x12\x0e\n\nstringType\x10\x00\x12\x0b\n\x07intType\x10\x01\x12\r\n\tfloatType\x10\x02\x12\x0c\n\x08longType\x10\x03\x42-\n\x19\x63om.facebook.encapp.protoB\x0eTestDefinitionP\x01')
 
 _DATAVALUETYPE = DESCRIPTOR.enum_types_by_name['DataValueType']
 DataValueType = enum_type_wrapper.EnumTypeWrapper(_DATAVALUETYPE)
@@ -39,13 +39,17 @@ _DECODERRUNTIME = DESCRIPTOR.message_types_by_name['DecoderRuntime']
 _DECODERRUNTIME_PARAMETER = _DECODERRUNTIME.nested_types_by_name['Parameter']
 _PARALLEL = DESCRIPTOR.message_types_by_name['Parallel']
 _SERIAL = DESCRIPTOR.message_types_by_name['Serial']
+_LADDER = DESCRIPTOR.message_types_by_name['Ladder']
+_LADDER_RUNG = _LADDER.nested_types_by_name['Rung']
 _TEST = DESCRIPTOR.message_types_by_name['Test']
 _TESTS = DESCRIPTOR.message_types_by_name['Tests']
 _INPUT_PIXFMT = _INPUT.enum_types_by_name['PixFmt']
+_INPUT_RENDERWORKERS = _INPUT.enum_types_by_name['RenderWorkers']
 _CONFIGURE_BITRATEMODE = _CONFIGURE.enum_types_by_name['BitrateMode']
 _CONFIGURE_COLORSTANDARD = _CONFIGURE.enum_types_by_name['ColorStandard']
 _CONFIGURE_COLORRANGE = _CONFIGURE.enum_types_by_name['ColorRange']
 _CONFIGURE_COLORTRANSFER = _CONFIGURE.enum_types_by_name['ColorTransfer']
+_CONFIGURE_OUTPUTSINK = _CONFIGURE.enum_types_by_name['OutputSink']
 Common = _reflection.GeneratedProtocolMessageType('Common', (_message.Message,), {
   'DESCRIPTOR' : _COMMON,
   '__module__' : 'tests_pb2'
@@ -150,6 +154,21 @@ Serial = _reflection.GeneratedProtocolMessageType('Serial', (_message.Message,),
   })
 _sym_db.RegisterMessage(Serial)
 
+Ladder = _reflection.GeneratedProtocolMessageType('Ladder', (_message.Message,), {
+
+  'Rung' : _reflection.GeneratedProtocolMessageType('Rung', (_message.Message,), {
+    'DESCRIPTOR' : _LADDER_RUNG,
+    '__module__' : 'tests_pb2'
+    # @@protoc_insertion_point(class_scope:Ladder.Rung)
+    })
+  ,
+  'DESCRIPTOR' : _LADDER,
+  '__module__' : 'tests_pb2'
+  # @@protoc_insertion_point(class_scope:Ladder)
+  })
+_sym_db.RegisterMessage(Ladder)
+_sym_db.RegisterMessage(Ladder.Rung)
+
 Test = _reflection.GeneratedProtocolMessageType('Test', (_message.Message,), {
   'DESCRIPTOR' : _TEST,
   '__module__' : 'tests_pb2'
@@ -168,48 +187,56 @@ if _descriptor._USE_C_DESCRIPTORS == False:
 
   DESCRIPTOR._options = None
   DESCRIPTOR._serialized_options = b'\n\031com.facebook.encapp.protoB\016TestDefinitionP\001'
-  _DATAVALUETYPE._serialized_start=2244
-  _DATAVALUETYPE._serialized_end=2317
+  _DATAVALUETYPE._serialized_start=2745
+  _DATAVALUETYPE._serialized_end=2818
   _COMMON._serialized_start=15
   _COMMON._serialized_end=90
   _INPUT._serialized_start=93
-  _INPUT._serialized_end=317
-  _INPUT_PIXFMT._serialized_start=286
-  _INPUT_PIXFMT._serialized_end=317
-  _CONFIGURE._serialized_start=320
-  _CONFIGURE._serialized_end=1202
-  _CONFIGURE_PARAMETER._serialized_start=908
-  _CONFIGURE_PARAMETER._serialized_end=977
-  _CONFIGURE_BITRATEMODE._serialized_start=979
-  _CONFIGURE_BITRATEMODE._serialized_end=1030
-  _CONFIGURE_COLORSTANDARD._serialized_start=1032
-  _CONFIGURE_COLORSTANDARD._serialized_end=1100
-  _CONFIGURE_COLORRANGE._serialized_start=1102
-  _CONFIGURE_COLORRANGE._serialized_end=1137
-  _CONFIGURE_COLORTRANSFER._serialized_start=1139
-  _CONFIGURE_COLORTRANSFER._serialized_end=1202
-  _RUNTIME._serialized_start=1205
-  _RUNTIME._serialized_end=1622
-  _RUNTIME_PARAMETER._serialized_start=1409
-  _RUNTIME_PARAMETER._serialized_end=1496
-  _RUNTIME_VIDEOBITRATEPARAMETER._serialized_start=1498
-  _RUNTIME_VIDEOBITRATEPARAMETER._serialized_end=1556
-  _RUNTIME_DYNAMICFRAMERATEPARAMETER._serialized_start=1558
-  _RUNTIME_DYNAMICFRAMERATEPARAMETER._serialized_end=1622
-  _DECODERCONFIGURE._serialized_start=1625
-  _DECODERCONFIGURE._serialized_end=1762
-  _DECODERCONFIGURE_PARAMETER._serialized_start=908
-  _DECODERCONFIGURE_PARAMETER._serialized_end=977
-  _DECODERRUNTIME._serialized_start=1765
-  _DECODERRUNTIME._serialized_end=1916
-  _DECODERRUNTIME_PARAMETER._serialized_start=1409
-  _DECODERRUNTIME_PARAMETER._serialized_end=1496
-  _PARALLEL._serialized_start=1918
-  _PARALLEL._serialized_end=1949
-  _SERIAL._serialized_start=1951
-  _SERIAL._serialized_end=1980
-  _TEST._serialized_start=1983
-  _TEST._serialized_end=2212
-  _TESTS._serialized_start=2214
-  _TESTS._serialized_end=2242
+  _INPUT._serialized_end=482
+  _INPUT_PIXFMT._serialized_start=404
+  _INPUT_PIXFMT._serialized_end=435
+  _INPUT_RENDERWORKERS._serialized_start=437
+  _INPUT_RENDERWORKERS._serialized_end=482
+  _CONFIGURE._serialized_start=485
+  _CONFIGURE._serialized_end=1503
+  _CONFIGURE_PARAMETER._serialized_start=1158
+  _CONFIGURE_PARAMETER._serialized_end=1227
+  _CONFIGURE_BITRATEMODE._serialized_start=1229
+  _CONFIGURE_BITRATEMODE._serialized_end=1280
+  _CONFIGURE_COLORSTANDARD._serialized_start=1282
+  _CONFIGURE_COLORSTANDARD._serialized_end=1350
+  _CONFIGURE_COLORRANGE._serialized_start=1352
+  _CONFIGURE_COLORRANGE._serialized_end=1387
+  _CONFIGURE_COLORTRANSFER._serialized_start=1389
+  _CONFIGURE_COLORTRANSFER._serialized_end=1452
+  _CONFIGURE_OUTPUTSINK._serialized_start=1454
+  _CONFIGURE_OUTPUTSINK._serialized_end=1503
+  _RUNTIME._serialized_start=1506
+  _RUNTIME._serialized_end=1923
+  _RUNTIME_PARAMETER._serialized_start=1710
+  _RUNTIME_PARAMETER._serialized_end=1797
+  _RUNTIME_VIDEOBITRATEPARAMETER._serialized_start=1799
+  _RUNTIME_VIDEOBITRATEPARAMETER._serialized_end=1857
+  _RUNTIME_DYNAMICFRAMERATEPARAMETER._serialized_start=1859
+  _RUNTIME_DYNAMICFRAMERATEPARAMETER._serialized_end=1923
+  _DECODERCONFIGURE._serialized_start=1926
+  _DECODERCONFIGURE._serialized_end=2099
+  _DECODERCONFIGURE_PARAMETER._serialized_start=1158
+  _DECODERCONFIGURE_PARAMETER._serialized_end=1227
+  _DECODERRUNTIME._serialized_start=2102
+  _DECODERRUNTIME._serialized_end=2253
+  _DECODERRUNTIME_PARAMETER._serialized_start=1710
+  _DECODERRUNTIME_PARAMETER._serialized_end=1797
+  _PARALLEL._serialized_start=2255
+  _PARALLEL._serialized_end=2286
+  _SERIAL._serialized_start=2288
+  _SERIAL._serialized_end=2317
+  _LADDER._serialized_start=2320
+  _LADDER._serialized_end=2456
+  _LADDER_RUNG._serialized_start=2358
+  _LADDER_RUNG._serialized_end=2456
+  _TEST._serialized_start=2459
+  _TEST._serialized_end=2713
+  _TESTS._serialized_start=2715
+  _TESTS._serialized_end=2743
 # @@protoc_insertion_point(module_scope)